@@ -1,25 +1,41 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.plaf.basic.BasicMenuUI;
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
+import java.io.*;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.*;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.regex.*;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 public class Program {
 
     private JFrame frame;
     private JTextArea console;
     private JComboBox<String> versionBox;
+    private JComboBox<String> typeBox;
+    private JTextField versionFilter;
     private JLabel statusLabel;
     private JButton loginBtn;
     private JButton fetchBtn;
@@ -34,9 +50,41 @@ public class Program {
     // Thread pool
     private final ExecutorService executor = Executors.newCachedThreadPool();
 
+    // Timers: device-code polls and token refresh ahead of expiry
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "auth-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
     private volatile boolean isPolling = false;
     private volatile boolean isLoggedIn = false;
 
+    // Microsoft account tokens, saved (obfuscated, owner-only) so later sessions skip the device-code flow
+    private volatile String msAccessToken;
+    private volatile String msRefreshToken;
+    private volatile long msExpiresAt;
+    private ScheduledFuture<?> refreshTask;
+
+    // Minecraft services session derived from them
+    private volatile McSession mcSession;
+
+    // Version list from the engine as {id, type}, newest first; replaced as a whole on refresh
+    private volatile List<String[]> versions = List.of();
+
+    private static final String CLIENT_ID = "00000000402b5328";
+    private static final String SCOPE = "XboxLive.signin offline_access";
+    private static final String DEVICE_CODE_URL = authUrl("https://login.microsoftonline.com", "/consumers/oauth2/v2.0/devicecode");
+    private static final String TOKEN_URL = authUrl("https://login.microsoftonline.com", "/consumers/oauth2/v2.0/token");
+    private static final String XBL_URL = authUrl("https://user.auth.xboxlive.com", "/user/authenticate");
+    private static final String XSTS_URL = authUrl("https://xsts.auth.xboxlive.com", "/xsts/authorize");
+    private static final String MC_LOGIN_URL = authUrl("https://api.minecraftservices.com", "/authentication/login_with_xbox");
+    private static final String ENTITLEMENTS_URL = authUrl("https://api.minecraftservices.com", "/entitlements/mcstore");
+    private static final String PROFILE_URL = authUrl("https://api.minecraftservices.com", "/minecraft/profile");
+
+    // Refresh this long before the access token expires
+    private static final long REFRESH_MARGIN_MS = 5 * 60 * 1000;
+
     private static final Pattern JSON_PAIR_PATTERN = Pattern.compile(
         "\"([^\"]+)\"\\s*:\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,}\\]\\s]+))"
     );
@@ -142,6 +190,31 @@ public class Program {
         versionBox.setBackground(new Color(45, 45, 45));
         versionBox.setForeground(Color.WHITE);
         ((JLabel)versionBox.getRenderer()).setHorizontalAlignment(JLabel.CENTER);
+        // Without a prototype the combo box measures every entry whenever its model changes
+        versionBox.setPrototypeDisplayValue("1.20.5-pre-release-10");
+        versionBox.setMaximumRowCount(20);
+
+        typeBox = new JComboBox<>(new String[]{"Releases", "Snapshots", "Old Betas", "Old Alphas", "All Types"});
+        typeBox.setMaximumSize(new Dimension(300, 30));
+        typeBox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        typeBox.setBackground(new Color(45, 45, 45));
+        typeBox.setForeground(Color.WHITE);
+        ((JLabel)typeBox.getRenderer()).setHorizontalAlignment(JLabel.CENTER);
+        typeBox.addActionListener(e -> applyVersionFilter());
+
+        versionFilter = new JTextField(15);
+        versionFilter.setMaximumSize(new Dimension(300, 25));
+        versionFilter.setAlignmentX(Component.CENTER_ALIGNMENT);
+        versionFilter.setBackground(new Color(45, 45, 45));
+        versionFilter.setForeground(Color.WHITE);
+        versionFilter.setCaretColor(Color.WHITE);
+        versionFilter.setBorder(BorderFactory.createLineBorder(new Color(60,60,60)));
+        versionFilter.setToolTipText("Type to filter versions");
+        versionFilter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { applyVersionFilter(); }
+            @Override public void removeUpdate(DocumentEvent e) { applyVersionFilter(); }
+            @Override public void changedUpdate(DocumentEvent e) { applyVersionFilter(); }
+        });
 
         console = new JTextArea(10, 40);
         console.setEditable(false);
@@ -163,6 +236,10 @@ public class Program {
         root.add(Box.createVerticalStrut(20));
         root.add(loginBtn);
         root.add(Box.createVerticalStrut(10));
+        root.add(typeBox);
+        root.add(Box.createVerticalStrut(5));
+        root.add(versionFilter);
+        root.add(Box.createVerticalStrut(5));
         root.add(versionBox);
         root.add(Box.createVerticalStrut(10));
         root.add(fetchBtn);
@@ -189,6 +266,7 @@ public class Program {
         });
         
         log("System initialized. Waiting for user input...");
+        executor.submit(this::restoreSession);
     }
 
     private JButton createButton(String text, Color textColor) {
@@ -202,67 +280,48 @@ public class Program {
     }
 
     // --- FETCH VERSIONS ---
+    /** Reads the version list from the launch engine (--list-versions), which owns the manifest and its cache. */
     private void fetchVersions() {
-        log("Fetching Mojang version manifest...");
-        status("Downloading manifest...");
+        log("Fetching version list from the launch engine...");
+        status("Loading versions...");
         toggleButtons(false);
 
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://launchermeta.mojang.com/mc/game/version_manifest.json"))
-                    .timeout(Duration.ofSeconds(10))
-                    .header("Accept", "application/json")
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = http.send(request, BodyHandlers.ofString());
-            
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("HTTP " + response.statusCode());
-            }
-
-            String json = response.body();
-            List<String> versions = new ArrayList<>();
-            
-            int versionsStart = json.indexOf("\"versions\"");
-            if (versionsStart != -1) {
-                int arrayStart = json.indexOf("[", versionsStart);
-                int arrayEnd = json.lastIndexOf("]");
-                
-                if (arrayStart != -1 && arrayEnd != -1) {
-                    String versionArray = json.substring(arrayStart + 1, arrayEnd);
-                    String[] rawObjects = versionArray.split("\\}\\s*,");
-                    
-                    for (String obj : rawObjects) {
-                        if (versions.size() >= 50) break;
-                        if (!obj.endsWith("}")) obj += "}";
-                        
-                        String id = extractJsonValue(obj, "id");
-                        String type = extractJsonValue(obj, "type");
-                        
-                        if (id != null && "release".equals(type)) {
-                            versions.add(id);
-                        }
+            List<String> cmd = engineCommand();
+            cmd.add("--list-versions");
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            Process engine = pb.start();
+            List<String[]> listed = new ArrayList<>();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(engine.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    String[] p = line.split("\t");
+                    if (p.length == 3 && p[0].equals("VERSION")) {
+                        listed.add(new String[]{p[1], p[2]});
+                    } else {
+                        log(line.startsWith("[LOG] ") ? line.substring(6) : line);
                     }
                 }
             }
-
-            if (versions.isEmpty()) {
-                throw new RuntimeException("No release versions found in manifest.");
+            int code = engine.waitFor();
+            if (listed.isEmpty()) {
+                throw new RuntimeException("No versions found (engine exit code " + code + ").");
             }
 
+            versions = Collections.unmodifiableList(listed);
             SwingUtilities.invokeLater(() -> {
-                versionBox.removeAllItems();
-                for (String v : versions) {
-                    versionBox.addItem(v);
-                }
-                if (versionBox.getItemCount() > 0) versionBox.setSelectedIndex(0);
+                applyVersionFilter();
                 status("Ready");
                 toggleButtons(true);
             });
 
-            log("Successfully loaded " + versions.size() + " release versions.");
+            long releases = listed.stream().filter(v -> v[1].equals("release")).count();
+            log("Successfully loaded " + listed.size() + " versions (" + releases + " releases).");
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            toggleButtons(true);
         } catch (Exception e) {
             log("Error fetching versions: " + e.getMessage());
             status("Error");
@@ -270,6 +329,33 @@ public class Program {
         }
     }
 
+    /**
+     * Rebuilds the combo box from the version list, the chosen type and the filter text, keeping the
+     * current selection if it still matches. Runs on the EDT for every keystroke in the filter field.
+     */
+    private void applyVersionFilter() {
+        Set<String> types = selectedTypes();
+        String q = versionFilter.getText().trim().toLowerCase(Locale.ROOT);
+        List<String> ids = new ArrayList<>();
+        for (String[] v : versions) {
+            if (types.contains(v[1]) && (q.isEmpty() || v[0].toLowerCase(Locale.ROOT).contains(q))) ids.add(v[0]);
+        }
+        Object selected = versionBox.getSelectedItem();
+        DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>(ids.toArray(new String[0]));
+        if (selected != null && model.getIndexOf(selected) >= 0) model.setSelectedItem(selected);
+        versionBox.setModel(model);
+    }
+
+    private Set<String> selectedTypes() {
+        switch (typeBox.getSelectedIndex()) {
+            case 1: return Set.of("snapshot");
+            case 2: return Set.of("old_beta");
+            case 3: return Set.of("old_alpha");
+            case 4: return Set.of("release", "snapshot", "old_beta", "old_alpha");
+            default: return Set.of("release");
+        }
+    }
+
     // --- MICROSOFT LOGIN ---
     private void microsoftLogin() {
         if (isPolling || isLoggedIn) {
@@ -281,15 +367,12 @@ public class Program {
         status("Requesting Device Code...");
         toggleButtons(false);
 
-        String clientId = "00000000402b5328";
-        String scope = "XboxLive.signin offline_access";
-
         try {
-            String body = "client_id=" + URLEncoder.encode(clientId, StandardCharsets.UTF_8) +
-                          "&scope=" + URLEncoder.encode(scope, StandardCharsets.UTF_8);
+            String body = "client_id=" + URLEncoder.encode(CLIENT_ID, StandardCharsets.UTF_8) +
+                          "&scope=" + URLEncoder.encode(SCOPE, StandardCharsets.UTF_8);
             
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://login.microsoftonline.com/consumers/oauth2/v2.0/devicecode"))
+                    .uri(URI.create(DEVICE_CODE_URL))
                     .timeout(Duration.ofSeconds(10))
                     .POST(BodyPublishers.ofString(body))
                     .header("Content-Type", "application/x-www-form-urlencoded")
@@ -346,7 +429,7 @@ public class Program {
                 }
             }
 
-            startPolling(clientId, deviceCode, interval);
+            startPolling(deviceCode, interval);
 
         } catch (Exception e) {
             log("Auth error: " + e.getMessage());
@@ -355,114 +438,557 @@ public class Program {
         }
     }
 
-    private void startPolling(String clientId, String deviceCode, int intervalSeconds) {
+    /**
+     * Polls the token endpoint from the scheduler with sendAsync, so no thread waits between
+     * polls or on the network; the MSA token then feeds straight into the Minecraft chain.
+     */
+    private void startPolling(String deviceCode, int intervalSeconds) {
         isPolling = true;
-        executor.submit(() -> {
-            long startTime = System.currentTimeMillis();
-            long timeout = 15 * 60 * 1000; // 15 mins
-            int currentInterval = intervalSeconds;
+        CompletableFuture<String> msaToken = new CompletableFuture<>();
+        schedulePoll(deviceCode, intervalSeconds, System.currentTimeMillis() + 15 * 60 * 1000, msaToken);
 
-            while (isPolling && (System.currentTimeMillis() - startTime < timeout)) {
-                try {
-                    for (int i = 0; i < currentInterval; i++) {
-                        if (!isPolling) return;
-                        Thread.sleep(1000);
-                    }
+        msaToken.thenCompose(json -> {
+            log(">>> AUTHENTICATION SUCCESSFUL! <<<");
+            acceptTokens(json);
+            status("Signing in to Minecraft...");
+            return minecraftLogin(msAccessToken);
+        }).whenComplete((session, err) -> {
+            isPolling = false;
+            if (err == null) {
+                useSession(session);
+                return;
+            }
+            Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+            if (!(cause instanceof CancellationException)) log(cause.getMessage());
+            status(cause instanceof TimeoutException ? "Timeout" : "Auth Failed");
+            toggleButtons(true);
+        });
+    }
 
-                    String body = "grant_type=" + URLEncoder.encode("urn:ietf:params:oauth:grant-type:device_code", StandardCharsets.UTF_8) +
-                            "&client_id=" + URLEncoder.encode(clientId, StandardCharsets.UTF_8) +
-                            "&device_code=" + URLEncoder.encode(deviceCode, StandardCharsets.UTF_8);
-
-                    HttpRequest request = HttpRequest.newBuilder()
-                            .uri(URI.create("https://login.microsoftonline.com/consumers/oauth2/v2.0/token"))
-                            .timeout(Duration.ofSeconds(10))
-                            .POST(BodyPublishers.ofString(body))
-                            .header("Content-Type", "application/x-www-form-urlencoded")
-                            .header("Accept", "application/json")
-                            .build();
-
-                    HttpResponse<String> response = http.send(request, BodyHandlers.ofString());
-                    String json = response.body();
-
-                    if (response.statusCode() == 200) {
-                        String accessToken = extractJsonValue(json, "access_token");
-                        
-                        log(">>> AUTHENTICATION SUCCESSFUL! <<<");
-                        if (accessToken != null && accessToken.length() > 15) {
-                            log("Access Token acquired: " + accessToken.substring(0, 15) + "...");
-                        }
-                        
-                        status("Logged In");
-                        isPolling = false;
-                        isLoggedIn = true;
-                        SwingUtilities.invokeLater(() -> {
-                            toggleButtons(true);
-                            loginBtn.setText("Logged In (MS)");
-                            loginBtn.setEnabled(false);
-                            loginBtn.setBackground(new Color(0, 100, 50));
-                            loginBtn.setForeground(Color.WHITE);
-                        });
-                        return;
-                    }
+    private void schedulePoll(String deviceCode, int interval, long deadline, CompletableFuture<String> result) {
+        scheduler.schedule(() -> {
+            if (!isPolling) {
+                result.cancel(false);
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                result.completeExceptionally(new TimeoutException("Auth timed out."));
+                return;
+            }
+            String body = "grant_type=" + URLEncoder.encode("urn:ietf:params:oauth:grant-type:device_code", StandardCharsets.UTF_8) +
+                    "&client_id=" + URLEncoder.encode(CLIENT_ID, StandardCharsets.UTF_8) +
+                    "&device_code=" + URLEncoder.encode(deviceCode, StandardCharsets.UTF_8);
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(TOKEN_URL))
+                    .timeout(Duration.ofSeconds(10))
+                    .POST(BodyPublishers.ofString(body))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .header("Accept", "application/json")
+                    .build();
+            http.sendAsync(request, BodyHandlers.ofString()).whenComplete((response, err) -> {
+                if (err != null) {
+                    log("Polling network error: " + err.getMessage());
+                    schedulePoll(deviceCode, interval, deadline, result);
+                    return;
+                }
+                String json = response.body();
+                if (response.statusCode() == 200) {
+                    result.complete(json);
+                } else if (json.contains("authorization_pending")) {
+                    schedulePoll(deviceCode, interval, deadline, result);
+                } else if (json.contains("slow_down")) {
+                    log("Polling slowed down. New interval: " + (interval + 5) + "s");
+                    schedulePoll(deviceCode, interval + 5, deadline, result);
+                } else if (json.contains("expired_token")) {
+                    result.completeExceptionally(new IOException("Code expired. Please try again."));
+                } else if (response.statusCode() >= 400 && response.statusCode() < 500) {
+                    result.completeExceptionally(new IOException("Auth rejected: " + json));
+                } else {
+                    schedulePoll(deviceCode, interval, deadline, result);
+                }
+            });
+        }, interval, TimeUnit.SECONDS);
+    }
 
-                    if (json.contains("authorization_pending")) {
-                        // continue
-                    } else if (json.contains("expired_token")) {
-                        log("Code expired. Please try again.");
-                        isPolling = false;
-                    } else if (json.contains("slow_down")) {
-                        currentInterval += 5;
-                        log("Polling slowed down. New interval: " + currentInterval + "s");
-                    } else {
-                        if (response.statusCode() >= 400 && response.statusCode() < 500 && !json.contains("pending")) {
-                            log("Auth rejected: " + json);
-                            isPolling = false;
+    // --- MINECRAFT AUTH CHAIN ---
+
+    /** What a launch needs from the account. */
+    private static final class McSession {
+        final String accessToken;
+        final String name;
+        final String uuid;
+        final long expiresAt;
+
+        McSession(String accessToken, String name, String uuid, long expiresAt) {
+            this.accessToken = accessToken;
+            this.name = name;
+            this.uuid = uuid;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * MSA token -> Xbox Live user token -> XSTS token -> Minecraft services login, then the
+     * entitlement check and profile fetch together. Each step starts the moment its input
+     * arrives; nothing blocks a thread while requests are in flight.
+     */
+    private CompletableFuture<McSession> minecraftLogin(String msaToken) {
+        long start = System.nanoTime();
+        String xblBody = "{\"Properties\":{\"AuthMethod\":\"RPS\",\"SiteName\":\"user.auth.xboxlive.com\","
+                + "\"RpsTicket\":\"d=" + msaToken + "\"},\"RelyingParty\":\"http://auth.xboxlive.com\",\"TokenType\":\"JWT\"}";
+        return postJson(XBL_URL, xblBody).thenApply(r -> expectOk(r, "Xbox Live"))
+                .thenCompose(xbl -> {
+                    String uhs = extractJsonValue(xbl, "uhs");
+                    String xstsBody = "{\"Properties\":{\"SandboxId\":\"RETAIL\",\"UserTokens\":[\""
+                            + extractJsonValue(xbl, "Token") + "\"]},"
+                            + "\"RelyingParty\":\"rp://api.minecraftservices.com/\",\"TokenType\":\"JWT\"}";
+                    return postJson(XSTS_URL, xstsBody).thenApply(r -> {
+                        if (r.statusCode() == 401) throw new CompletionException(new IOException(xstsError(r.body())));
+                        return "XBL3.0 x=" + uhs + ";" + extractJsonValue(expectOk(r, "XSTS"), "Token");
+                    });
+                })
+                .thenCompose(identity -> postJson(MC_LOGIN_URL, "{\"identityToken\":\"" + identity + "\"}"))
+                .thenApply(r -> expectOk(r, "Minecraft login"))
+                .thenCompose(login -> {
+                    String mcToken = extractJsonValue(login, "access_token");
+                    long expiresAt = System.currentTimeMillis() + 1000 * parseLong(extractJsonValue(login, "expires_in"), 86400);
+                    // Independent of each other, so both go out at once
+                    CompletableFuture<String> entitlements = getBearer(ENTITLEMENTS_URL, mcToken)
+                            .thenApply(r -> expectOk(r, "Entitlements"));
+                    CompletableFuture<HttpResponse<String>> profile = getBearer(PROFILE_URL, mcToken);
+                    return entitlements.thenCombine(profile, (ent, prof) -> {
+                        if (!ent.contains("\"game_minecraft\"") && !ent.contains("\"product_minecraft\"")) {
+                            throw new CompletionException(new IOException("This account does not own Minecraft."));
                         }
-                    }
+                        if (prof.statusCode() == 404) {
+                            throw new CompletionException(new IOException("No Minecraft profile yet; create one at minecraft.net first."));
+                        }
+                        String p = expectOk(prof, "Profile");
+                        return new McSession(mcToken, extractJsonValue(p, "name"), extractJsonValue(p, "id"), expiresAt);
+                    });
+                })
+                .whenComplete((s, err) -> {
+                    if (s != null) log("Minecraft sign-in took " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+                });
+    }
 
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    isPolling = false;
-                } catch (Exception e) {
-                    log("Polling network error: " + e.getMessage());
-                }
+    private CompletableFuture<HttpResponse<String>> postJson(String url, String json) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofSeconds(15))
+                .POST(BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .build();
+        return http.sendAsync(request, BodyHandlers.ofString());
+    }
+
+    private CompletableFuture<HttpResponse<String>> getBearer(String url, String token) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofSeconds(15))
+                .header("Authorization", "Bearer " + token)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        return http.sendAsync(request, BodyHandlers.ofString());
+    }
+
+    private static String expectOk(HttpResponse<String> response, String step) {
+        if (response.statusCode() != 200) {
+            throw new CompletionException(new IOException(step + " failed: HTTP " + response.statusCode()));
+        }
+        return response.body();
+    }
+
+    private String xstsError(String json) {
+        String code = extractJsonValue(json, "XErr");
+        if ("2148916233".equals(code)) return "This Microsoft account has no Xbox profile; sign in at xbox.com first.";
+        if ("2148916235".equals(code)) return "Xbox Live is not available in this account's country.";
+        if ("2148916238".equals(code)) return "This is a child account; an adult must add it to a Microsoft family.";
+        return "XSTS authorization failed" + (code != null ? " (XErr " + code + ")" : "") + ".";
+    }
+
+    private static long parseLong(String s, long dflt) {
+        try {
+            return s != null ? Long.parseLong(s) : dflt;
+        } catch (NumberFormatException e) {
+            return dflt;
+        }
+    }
+
+    /** Base URL for every auth endpoint, e.g. a local stand-in server: -Dcatclient.authBase=http://127.0.0.1:8080 */
+    private static String authUrl(String realBase, String path) {
+        String base = System.getProperty("catclient.authBase");
+        return (base != null ? base : realBase) + path;
+    }
+
+    private void useSession(McSession session) {
+        mcSession = session;
+        saveTokens();
+        log("Signed in as " + session.name + ".");
+        markLoggedIn();
+    }
+
+    private void markLoggedIn() {
+        status("Logged In");
+        isLoggedIn = true;
+        McSession s = mcSession;
+        SwingUtilities.invokeLater(() -> {
+            toggleButtons(true);
+            loginBtn.setText(s != null && s.name != null ? "Logged In (" + s.name + ")" : "Logged In (MS)");
+            loginBtn.setEnabled(false);
+            loginBtn.setBackground(new Color(0, 100, 50));
+            loginBtn.setForeground(Color.WHITE);
+        });
+    }
+
+    // --- TOKEN CACHE ---
+
+    /** Launcher data directory, shared with the full launcher. */
+    private static Path dataDir() {
+        String os = System.getProperty("os.name").toLowerCase();
+        if (os.contains("win")) return Paths.get(System.getenv("APPDATA"), ".catclient");
+        if (os.contains("mac")) return Paths.get(System.getProperty("user.home"), "Library", "Application Support", "catclient");
+        return Paths.get(System.getProperty("user.home"), ".catclient");
+    }
+
+    /** Startup: use the saved tokens at once if they are still good, otherwise refresh them quietly. */
+    private void restoreSession() {
+        if (!loadTokens()) return;
+        McSession s = mcSession;
+        if (s != null && s.expiresAt - System.currentTimeMillis() > REFRESH_MARGIN_MS) {
+            log("Restored saved login for " + s.name + ".");
+            markLoggedIn();
+            scheduleRefresh();
+            return;
+        }
+        CompletableFuture<Boolean> msa = msAccessToken != null && msExpiresAt - System.currentTimeMillis() > REFRESH_MARGIN_MS
+                ? CompletableFuture.completedFuture(true) : refreshTokens();
+        msa.thenCompose(ok -> ok ? minecraftLogin(msAccessToken) : CompletableFuture.completedFuture(null))
+                .whenComplete((session, err) -> {
+                    if (session != null) useSession(session);
+                    else if (err != null) log("Saved login could not be restored: " + err.getMessage());
+                });
+    }
+
+    /** Trades the refresh token for new tokens; completes false if there is none or it was rejected. */
+    private CompletableFuture<Boolean> refreshTokens() {
+        String refresh = msRefreshToken;
+        if (refresh == null) return CompletableFuture.completedFuture(false);
+        String body = "grant_type=refresh_token" +
+                "&client_id=" + URLEncoder.encode(CLIENT_ID, StandardCharsets.UTF_8) +
+                "&scope=" + URLEncoder.encode(SCOPE, StandardCharsets.UTF_8) +
+                "&refresh_token=" + URLEncoder.encode(refresh, StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(TOKEN_URL))
+                .timeout(Duration.ofSeconds(10))
+                .POST(BodyPublishers.ofString(body))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("Accept", "application/json")
+                .build();
+        return http.sendAsync(request, BodyHandlers.ofString()).handle((response, err) -> {
+            if (err != null) {
+                log("Token refresh failed: " + err.getMessage() + ", retrying later.");
+            } else if (response.statusCode() == 200) {
+                acceptTokens(response.body());
+                return true;
+            } else if (response.statusCode() >= 400 && response.statusCode() < 500) {
+                // Revoked, expired or password changed: only a new device-code login helps
+                log("Saved Microsoft login is no longer valid; please log in again.");
+                clearTokens();
+                return false;
+            } else {
+                log("Token refresh failed (HTTP " + response.statusCode() + "), retrying later.");
             }
-            
-            if (isPolling) {
-                log("Auth timed out.");
-                status("Timeout");
-                isPolling = false;
-                toggleButtons(true);
+            scheduleRetry();
+            return false;
+        });
+    }
+
+    /** Scheduled ahead of expiry: new MSA tokens, and a new Minecraft session if that one is running out too. */
+    private void refreshSession() {
+        refreshTokens().thenCompose(ok -> {
+            McSession s = mcSession;
+            boolean stale = s == null || s.expiresAt - System.currentTimeMillis() <= REFRESH_MARGIN_MS;
+            return ok && stale ? minecraftLogin(msAccessToken) : CompletableFuture.completedFuture(null);
+        }).whenComplete((session, err) -> {
+            if (session != null) {
+                mcSession = session;
+                saveTokens();
+            } else if (err != null) {
+                log("Minecraft session refresh failed: " + err.getMessage());
             }
         });
     }
 
+    private void acceptTokens(String json) {
+        String access = extractJsonValue(json, "access_token");
+        String refresh = extractJsonValue(json, "refresh_token");
+        msAccessToken = access;
+        if (refresh != null) msRefreshToken = refresh;
+        msExpiresAt = System.currentTimeMillis() + parseLong(extractJsonValue(json, "expires_in"), 3600) * 1000;
+        saveTokens();
+        scheduleRefresh();
+    }
+
+    private synchronized void scheduleRefresh() {
+        long delay = Math.max(30_000, msExpiresAt - System.currentTimeMillis() - REFRESH_MARGIN_MS);
+        schedule(delay);
+    }
+
+    private synchronized void scheduleRetry() {
+        schedule(60_000);
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (refreshTask != null) refreshTask.cancel(false);
+        refreshTask = scheduler.schedule(this::refreshSession, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void clearTokens() {
+        msAccessToken = null;
+        msRefreshToken = null;
+        msExpiresAt = 0;
+        mcSession = null;
+        try {
+            Files.deleteIfExists(dataDir().resolve("msa-tokens.bin"));
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Writes the tokens AES-GCM sealed (version byte, 12-byte nonce, ciphertext). This is obfuscation,
+     * not encryption at rest: the key file sits beside the cache, so anyone who can read both has the
+     * tokens. What protects them is that both files are readable by the owner only; the sealing just
+     * keeps them out of plain sight in backups, searches and shared screens, and detects tampering.
+     */
+    private synchronized void saveTokens() {
+        if (msRefreshToken == null) return;
+        try {
+            Properties p = new Properties();
+            p.setProperty("refresh_token", msRefreshToken);
+            if (msAccessToken != null) p.setProperty("access_token", msAccessToken);
+            p.setProperty("expires_at", Long.toString(msExpiresAt));
+            McSession s = mcSession;
+            if (s != null && s.accessToken != null && s.name != null && s.uuid != null) {
+                p.setProperty("mc_access_token", s.accessToken);
+                p.setProperty("mc_name", s.name);
+                p.setProperty("mc_uuid", s.uuid);
+                p.setProperty("mc_expires_at", Long.toString(s.expiresAt));
+            }
+            StringWriter sw = new StringWriter();
+            p.store(sw, null);
+
+            byte[] nonce = new byte[12];
+            new SecureRandom().nextBytes(nonce);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, tokenKey(), new GCMParameterSpec(128, nonce));
+            byte[] sealed = cipher.doFinal(sw.toString().getBytes(StandardCharsets.UTF_8));
+
+            byte[] out = new byte[1 + nonce.length + sealed.length];
+            out[0] = 1;
+            System.arraycopy(nonce, 0, out, 1, nonce.length);
+            System.arraycopy(sealed, 0, out, 1 + nonce.length, sealed.length);
+            writeOwnerOnly(dataDir().resolve("msa-tokens.bin"), out);
+        } catch (IOException | GeneralSecurityException e) {
+            log("Could not save login: " + e.getMessage());
+        }
+    }
+
+    private boolean loadTokens() {
+        Path file = dataDir().resolve("msa-tokens.bin");
+        if (!Files.exists(file)) return false;
+        try {
+            byte[] in = Files.readAllBytes(file);
+            if (in.length < 1 + 12 + 16 || in[0] != 1) throw new GeneralSecurityException("unknown format");
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, tokenKey(), new GCMParameterSpec(128, in, 1, 12));
+            byte[] plain = cipher.doFinal(in, 13, in.length - 13);
+            Properties p = new Properties();
+            p.load(new StringReader(new String(plain, StandardCharsets.UTF_8)));
+            msRefreshToken = p.getProperty("refresh_token");
+            msAccessToken = p.getProperty("access_token");
+            msExpiresAt = Long.parseLong(p.getProperty("expires_at", "0"));
+            if (p.getProperty("mc_access_token") != null) {
+                mcSession = new McSession(p.getProperty("mc_access_token"), p.getProperty("mc_name"),
+                        p.getProperty("mc_uuid"), Long.parseLong(p.getProperty("mc_expires_at", "0")));
+            }
+            return msRefreshToken != null;
+        } catch (IOException | GeneralSecurityException | NumberFormatException e) {
+            // Tampered, from another key, or unreadable: forget it and log in normally
+            log("Ignoring unreadable saved login.");
+            clearTokens();
+            return false;
+        }
+    }
+
+    /** 256-bit obfuscation key next to the cache (see saveTokens), created on first use, owner-only. */
+    private static SecretKeySpec tokenKey() throws IOException {
+        Path keyFile = dataDir().resolve("msa-tokens.key");
+        if (!Files.exists(keyFile)) {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            try {
+                createOwnerOnly(keyFile, key);
+            } catch (FileAlreadyExistsException raced) {
+                // The other frontend created it first and may already have a cache under it; use theirs
+            }
+        }
+        byte[] key = Files.readAllBytes(keyFile);
+        if (key.length != 32) throw new IOException("bad key file");
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private static void writeOwnerOnly(Path file, byte[] data) throws IOException {
+        Path tmp = ownerOnlyTemp(file, data);
+        try {
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Like writeOwnerOnly, but throws FileAlreadyExistsException instead of replacing an existing file. */
+    private static void createOwnerOnly(Path file, byte[] data) throws IOException {
+        Path tmp = ownerOnlyTemp(file, data);
+        try {
+            try {
+                // A hard link appears complete and fails if the name is taken, with no window in between
+                Files.createLink(file, tmp);
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (IOException | UnsupportedOperationException noLinks) {
+                // File systems without hard links (FAT): a move that refuses to replace
+                Files.move(tmp, file);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** A sibling temp file holding data, readable and writable by the owner only. */
+    private static Path ownerOnlyTemp(Path file, byte[] data) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not POSIX (Windows): drop everyone's access, then give it back to the owner
+            Files.createFile(tmp);
+            File f = tmp.toFile();
+            f.setReadable(false, false);
+            f.setWritable(false, false);
+            f.setReadable(true, true);
+            f.setWritable(true, true);
+        }
+        try {
+            Files.write(tmp, data);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        return tmp;
+    }
+
     // --- LAUNCH ---
+
+    /**
+     * Hands the launch to the full launcher (CTACHOLDINGLAUNCHERV0 --launch), which looks the version up,
+     * downloads and verifies the client, libraries and assets side by side, extracts natives and starts
+     * the game, then stays attached and forwards its output. The token travels in the environment only.
+     */
     private void launchGame(String version) {
+        if (!isLoggedIn || mcSession == null) {
+            JOptionPane.showMessageDialog(frame, "Please log in first.", "Authentication Required", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
         status("Launching...");
         log("PREPARING LAUNCH FOR: Minecraft " + version);
         toggleButtons(false);
-        
+
+        boolean started = false;
         try {
-            log("Checking file integrity...");
-            Thread.sleep(600);
-            log("Downloading native libraries...");
-            Thread.sleep(600);
-            log("Validating assets...");
-            Thread.sleep(600);
-            
-            SwingUtilities.invokeLater(() -> {
-                 JOptionPane.showMessageDialog(frame, 
-                     "Launcher simulation complete for version " + version + ".\n" +
-                     "Token and Version IDs are ready for process builder.", 
-                     "Launch Success", JOptionPane.INFORMATION_MESSAGE);
-                 status("Ready");
-                 toggleButtons(true);
-            });
-            
+            McSession s = mcSession;
+            if (s.expiresAt - System.currentTimeMillis() <= REFRESH_MARGIN_MS) {
+                // The scheduled refresh can miss while the machine sleeps
+                log("Minecraft session is about to expire, refreshing...");
+                s = refreshTokens().thenCompose(ok -> ok ? minecraftLogin(msAccessToken) : CompletableFuture.completedFuture(null)).get();
+                if (s == null) throw new IOException("session could not be refreshed, please log in again");
+                mcSession = s;
+                saveTokens();
+            }
+
+            List<String> cmd = engineCommand();
+            cmd.add("--launch"); cmd.add(version);
+            cmd.add("--username"); cmd.add(s.name);
+            cmd.add("--uuid"); cmd.add(s.uuid);
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            pb.environment().put("CATCLIENT_ACCESS_TOKEN", s.accessToken);
+            Process engine = pb.start();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(engine.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    log(line.startsWith("[LOG] ") ? line.substring(6) : line);
+                    if (!started && line.contains("Started instance #")) {
+                        started = true;
+                        status("Game running");
+                        toggleButtons(true);
+                    }
+                }
+            }
+            int code = engine.waitFor();
+            log(started ? "Game exited with code " + code + "." : "Launch failed (exit code " + code + ").");
+            status(started ? "Ready" : "Launch failed");
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            toggleButtons(true);
+        } catch (IOException | ExecutionException e) {
+            log("Launch error: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            status("Launch failed");
+        }
+        if (!started) toggleButtons(true);
+    }
+
+    /**
+     * Command line for the launch engine: the classes compiled by build-cds.sh (with their CDS archive)
+     * when they are newer than the source, otherwise the source file. The engine is looked for next to
+     * this frontend's own source file; -Dcatclient.engine overrides the path (relative paths from there too).
+     */
+    private static List<String> engineCommand() {
+        Path source = ownDir().resolve(System.getProperty("catclient.engine", "CTACHOLDINGLAUNCHERV0.java")).normalize();
+        Path build = source.resolveSibling("build");
+        Path compiled = build.resolve("classes").resolve("Program.class");
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ProcessHandle.current().info().command().orElse("java"));
+        try {
+            if (Files.exists(compiled) && Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+                Path archive = build.resolve("launcher.jsa");
+                if (Files.exists(archive)) cmd.add("-XX:SharedArchiveFile=" + archive);
+                cmd.add("-cp"); cmd.add(build.resolve("classes").toString());
+                cmd.add("Program");
+                return cmd;
+            }
+        } catch (IOException ignored) {
+            // fall back to the source file
+        }
+        cmd.add(source.toString());
+        return cmd;
+    }
+
+    /** Directory of the running source file, or of the compiled classes, whatever the working directory. */
+    private static Path ownDir() {
+        String sourceFile = System.getProperty("jdk.launcher.sourcefile");
+        if (sourceFile != null) return Paths.get(sourceFile).toAbsolutePath().getParent();
+        try {
+            Path location = Paths.get(Program.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return Files.isDirectory(location) ? location : location.getParent();
+        } catch (Exception e) {
+            return Paths.get("").toAbsolutePath();
         }
     }
 
@@ -1,23 +1,43 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 import javax.swing.plaf.basic.BasicMenuUI;
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.*;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.*;
+import java.util.stream.Stream;
 import java.util.zip.*;
 
 public class Program {
@@ -25,37 +45,121 @@ public class Program {
     private JFrame frame;
     private JTextArea console;
     private JComboBox<String> versionBox;
+    private JComboBox<String> instanceBox;
     private JLabel statusLabel;
+    private JLabel monitorLabel;
     private JButton loginBtn;
     private JButton fetchBtn;
     private JButton launchBtn;
+    private JButton cancelBtn;
     private JTextField emailField;
+    private JTextField versionFilter;
     private JPasswordField passwordField;
 
-    // HTTP Client
-    private final HttpClient http = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_2)
-            .connectTimeout(Duration.ofSeconds(15))
-            .build();
+    // HTTP Client and thread pool, created on first use so they stay off the time-to-first-frame path
+    private volatile HttpClient http;
+    private volatile ExecutorService executor;
 
-    // Thread pool
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // Process start, for the time-to-first-frame measurement
+    private static final long START_MILLIS = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
+
+    // --cds-training: start up, run the startup tasks once, then exit so -XX:ArchiveClassesAtExit can dump
+    private static boolean cdsTraining = false;
+
+    // Low-priority single worker for speculative prefetch; a newer selection cancels the older one
+    private final ScheduledExecutorService prefetcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "prefetch");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private ScheduledFuture<?> pendingPrefetch;
+
+    // Downloads currently in progress, so a launch joins a prefetch of the same file instead of racing it
+    private final Map<Path, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    // Running game processes, keyed by instance number
+    private final Map<Integer, GameInstance> instances = new ConcurrentHashMap<>();
+    private final AtomicInteger nextInstanceId = new AtomicInteger(1);
+
+    // Samples /proc for every running instance
+    private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "proc-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // In-process half of the striped cache locks (FileLock alone would throw within one JVM)
+    private static final int LOCK_STRIPES = 256;
+    private final ReentrantLock[] stripeLocks = new ReentrantLock[LOCK_STRIPES];
+    {
+        for (int i = 0; i < LOCK_STRIPES; i++) stripeLocks[i] = new ReentrantLock();
+    }
+
+    // Fingerprints of already-hashed files, loaded on first verification
+    private volatile HashCache hashCache;
+
+    // Packed asset objects (assets.packStore), opened on first use
+    private volatile PackStore packStore;
+
+    // Collector probes by runtime executable and flag, so each runtime is asked once per session
+    private final Map<String, Boolean> gcSupport = new ConcurrentHashMap<>();
+    // Major versions of java executables the launcher did not install, probed once per session
+    private final Map<String, Integer> javaMajors = new ConcurrentHashMap<>();
+
+    // Open append handle on journal.log
+    private final Object journalLock = new Object();
+    private FileChannel journal;
+
+    // The launch being prepared, until its process has started; guarded by launchLock
+    private final Object launchLock = new Object();
+    private Future<?> launchTask;
+    private volatile boolean launchCancelled;
+
+    // Bandwidth budgets (net.limit.*KBps); the thread's budget is inherited by the pools it starts
+    private static final InheritableThreadLocal<TokenBucket> BUDGET = new InheritableThreadLocal<>();
+    private final TokenBucket interactiveBudget = new TokenBucket(0);
+    private final TokenBucket backgroundBudget = new TokenBucket(0);
+
+    // Serializes runtime installs so a prefetch and a launch never install the same component twice;
+    // taken interruptibly, so cancelling a launch queued behind a prefetch does not wait for it
+    private final ReentrantLock runtimeLock = new ReentrantLock();
 
     private volatile boolean isLoggedIn = false;
 
+    // Timing metrics (name -> milliseconds), reported to the console as they are recorded
+    private final Map<String, Long> metrics = new ConcurrentHashMap<>();
+
     // Mojang auth state
     private String mojangAccessToken = null;
     private String mojangUsername = null;
     private String mojangUuid = null;
+    private String userType = "mojang";
 
-    // Version list
-    private final List<String[]> versions = Collections.synchronizedList(new ArrayList<>());
+    // Version catalogue (immutable and indexed, swapped atomically on refresh)
+    private volatile VersionCatalog catalog = VersionCatalog.EMPTY;
 
     // Paths
-    private static Path ROOT, VERSIONS_DIR, LIBRARIES_DIR, ASSETS_DIR, NATIVES_DIR;
+    private static Path ROOT, VERSIONS_DIR, LIBRARIES_DIR, ASSETS_DIR, NATIVES_DIR, CDS_DIR, RUNTIMES_DIR, LOGS_DIR,
+            INSTANCES_DIR, MANIFEST_CACHE, SETTINGS_FILE;
+
+    // The instance whose game directory is ROOT itself, so pre-instance saves stay where they were
+    private static final String DEFAULT_INSTANCE = "default";
+
+    // User settings (launcher.properties in ROOT)
+    private static final Properties settings = new Properties();
 
     private static final String RESOURCES_URL = "https://resources.download.minecraft.net/";
     private static final String MANIFEST_URL = "https://launchermeta.mojang.com/mc/game/version_manifest_v2.json";
+    private static final String RUNTIME_MANIFEST_URL =
+        "https://launchermeta.mojang.com/v1/products/java-runtime/2ec0cc96c44e5a76b9c8b7c39df7210883d12871/all.json";
+
+    private static final Pattern VERSION_TYPE_PATTERN = Pattern.compile("\"type\"\\s*:\\s*\"(release|snapshot|old_beta|old_alpha)\"");
+
+    private static final Pattern ASSET_HASH_PATTERN = Pattern.compile("\"hash\"\\s*:\\s*\"([0-9a-f]{40})\"");
+
+    private static final Pattern URL_HOST_PATTERN = Pattern.compile("\"https://([^/\"]+)/");
 
     private static final Pattern JSON_PAIR_PATTERN = Pattern.compile(
         "\"([^\"]+)\"\\s*:\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,}\\]\\s]+))"
@@ -64,8 +168,15 @@ public class Program {
     private static final Color BLUE_ACCENT = new Color(66, 135, 245);
 
     public Program() {
+        this(true);
+    }
+
+    /** Without a window this only sets up directories and settings, for the command-line modes. */
+    private Program(boolean withUi) {
         initDirs();
-        initUI();
+        interactiveBudget.setRate(limitSetting("net.limit.interactiveKBps"));
+        backgroundBudget.setRate(limitSetting("net.limit.backgroundKBps"));
+        if (withUi) initUI();
     }
 
     private void initDirs() {
@@ -83,17 +194,58 @@ public class Program {
         LIBRARIES_DIR = home.resolve("libraries");
         ASSETS_DIR = home.resolve("assets");
         NATIVES_DIR = home.resolve("natives");
+        CDS_DIR = home.resolve("cds");
+        RUNTIMES_DIR = home.resolve("runtimes");
+        LOGS_DIR = home.resolve("logs");
+        INSTANCES_DIR = home.resolve("instances");
+        MANIFEST_CACHE = home.resolve("version_manifest_v2.json");
+        SETTINGS_FILE = home.resolve("launcher.properties");
         try {
             Files.createDirectories(VERSIONS_DIR);
             Files.createDirectories(LIBRARIES_DIR);
             Files.createDirectories(ASSETS_DIR.resolve("indexes"));
             Files.createDirectories(ASSETS_DIR.resolve("objects"));
             Files.createDirectories(NATIVES_DIR);
+            if (Files.exists(SETTINGS_FILE)) {
+                try (Reader r = Files.newBufferedReader(SETTINGS_FILE, StandardCharsets.UTF_8)) {
+                    settings.load(r);
+                }
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private static String setting(String key, String dflt) {
+        return settings.getProperty(key, dflt);
+    }
+
+    private static boolean flag(String key, boolean dflt) {
+        return Boolean.parseBoolean(settings.getProperty(key, String.valueOf(dflt)));
+    }
+
+    /** Numeric setting; a value that does not parse is logged and the default used. */
+    private long numberSetting(String key, long dflt) {
+        String value = setting(key, String.valueOf(dflt)).trim();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log("Ignoring " + key + "=" + value + " (not a number), using " + dflt);
+            return dflt;
+        }
+    }
+
+    private void saveSetting(String key, String value) {
+        settings.setProperty(key, value);
+        try {
+            StringWriter sw = new StringWriter();
+            settings.store(sw, "CatClient launcher settings");
+            writeAtomic(SETTINGS_FILE, sw.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log("Could not save settings: " + e.getMessage());
+        }
+    }
+
     private void initUI() {
         try {
             UIManager.setLookAndFeel(UIManager.getCrossPlatformLookAndFeelClassName());
@@ -116,14 +268,19 @@ public class Program {
         UIManager.put("ComboBox.selectionForeground", Color.WHITE);
 
         frame = new JFrame("CatClient - Real Launcher");
-        frame.setSize(600, 580);
+        frame.setSize(600, 660);
         frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                long ttff = System.currentTimeMillis() - START_MILLIS;
+                metric("startup.timeToFirstFrame", TimeUnit.MILLISECONDS.toNanos(ttff));
+                startBackgroundTasks();
+            }
+
             @Override
             public void windowClosing(WindowEvent e) {
-                executor.shutdownNow();
-                frame.dispose();
-                System.exit(0);
+                exitLauncher();
             }
         });
         frame.setResizable(false);
@@ -142,7 +299,7 @@ public class Program {
         exitItem.setForeground(Color.WHITE);
         exitItem.setBackground(Color.BLACK);
         exitItem.setOpaque(true);
-        exitItem.addActionListener(e -> System.exit(0));
+        exitItem.addActionListener(e -> exitLauncher());
         fileMenu.add(exitItem);
 
         JMenu helpMenu = new JMenu("Help");
@@ -158,7 +315,67 @@ public class Program {
                 JOptionPane.INFORMATION_MESSAGE));
         helpMenu.add(aboutItem);
 
+        JMenu optionsMenu = new JMenu("Options");
+        optionsMenu.setForeground(Color.WHITE);
+        optionsMenu.setBackground(Color.BLACK);
+        optionsMenu.setOpaque(true);
+        optionsMenu.add(optionItem("Class Data Sharing (AppCDS) for game", "game.cds", false));
+        optionsMenu.add(optionItem("GC logging and pause analysis", "game.gcLog", false));
+        optionsMenu.add(optionItem("Warm page cache before launch", "game.warmCache", false));
+        optionsMenu.add(optionItem("Verify files before launch", "launch.verify", false));
+        optionsMenu.add(optionItem("Packed asset store", "assets.packStore", false));
+        JMenu typesMenu = new JMenu("Version Types");
+        typesMenu.setForeground(Color.WHITE);
+        typesMenu.setBackground(Color.BLACK);
+        typesMenu.setOpaque(true);
+        typesMenu.add(versionTypeItem("Releases", "release"));
+        typesMenu.add(versionTypeItem("Snapshots", "snapshot"));
+        typesMenu.add(versionTypeItem("Old Betas", "old_beta"));
+        typesMenu.add(versionTypeItem("Old Alphas", "old_alpha"));
+        optionsMenu.add(typesMenu);
+        JMenuItem bandwidthItem = darkItem("Bandwidth Limits...");
+        bandwidthItem.addActionListener(e -> showBandwidthDialog());
+        optionsMenu.add(bandwidthItem);
+
+        JMenu toolsMenu = new JMenu("Tools");
+        toolsMenu.setForeground(Color.WHITE);
+        toolsMenu.setBackground(Color.BLACK);
+        toolsMenu.setOpaque(true);
+        JMenuItem gcDryItem = darkItem("Clean Cache (dry run)");
+        gcDryItem.addActionListener(e -> executor().submit(() -> runCacheGc(true)));
+        toolsMenu.add(gcDryItem);
+        JMenuItem gcItem = darkItem("Clean Cache...");
+        gcItem.addActionListener(e -> executor().submit(() -> runCacheGc(false)));
+        toolsMenu.add(gcItem);
+        toolsMenu.addSeparator();
+        JMenuItem verifyItem = darkItem("Verify Selected Version");
+        verifyItem.addActionListener(e -> verifySelected(false));
+        toolsMenu.add(verifyItem);
+        JMenuItem repairItem = darkItem("Repair Selected Version");
+        repairItem.addActionListener(e -> verifySelected(true));
+        toolsMenu.add(repairItem);
+
+        JMenu instancesMenu = new JMenu("Instances");
+        instancesMenu.setForeground(Color.WHITE);
+        instancesMenu.setBackground(Color.BLACK);
+        instancesMenu.setOpaque(true);
+        instancesMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                fillInstancesMenu(instancesMenu);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {}
+
+            @Override
+            public void menuCanceled(MenuEvent e) {}
+        });
+
         menuBar.add(fileMenu);
+        menuBar.add(optionsMenu);
+        menuBar.add(toolsMenu);
+        menuBar.add(instancesMenu);
         menuBar.add(helpMenu);
         frame.setJMenuBar(menuBar);
         // -----------------------------
@@ -219,6 +436,8 @@ public class Program {
         loginBtn = createButton("Login", BLUE_ACCENT);
         fetchBtn = createButton("Fetch Versions", BLUE_ACCENT);
         launchBtn = createButton("Launch Game", BLUE_ACCENT);
+        cancelBtn = createButton("Cancel", BLUE_ACCENT);
+        cancelBtn.setEnabled(false);
 
         versionBox = new JComboBox<>();
         versionBox.setMaximumSize(new Dimension(300, 30));
@@ -226,6 +445,36 @@ public class Program {
         versionBox.setBackground(new Color(45, 45, 45));
         versionBox.setForeground(Color.WHITE);
         ((JLabel)versionBox.getRenderer()).setHorizontalAlignment(JLabel.CENTER);
+        // Without a prototype the combo box measures every entry whenever its model changes
+        versionBox.setPrototypeDisplayValue("1.20.5-pre-release-10");
+        versionBox.setMaximumRowCount(20);
+
+        versionFilter = new JTextField(15);
+        versionFilter.setMaximumSize(new Dimension(300, 25));
+        versionFilter.setAlignmentX(Component.CENTER_ALIGNMENT);
+        versionFilter.setBackground(new Color(45, 45, 45));
+        versionFilter.setForeground(Color.WHITE);
+        versionFilter.setCaretColor(Color.WHITE);
+        versionFilter.setBorder(BorderFactory.createLineBorder(new Color(60,60,60)));
+        versionFilter.setToolTipText("Type to filter versions");
+        versionFilter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { applyVersionFilter(); }
+            @Override public void removeUpdate(DocumentEvent e) { applyVersionFilter(); }
+            @Override public void changedUpdate(DocumentEvent e) { applyVersionFilter(); }
+        });
+
+        instanceBox = new JComboBox<>(listGameInstances().toArray(new String[0]));
+        instanceBox.setMaximumSize(new Dimension(300, 30));
+        instanceBox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        instanceBox.setBackground(new Color(45, 45, 45));
+        instanceBox.setForeground(Color.WHITE);
+        instanceBox.setToolTipText("Game directory (saves, options, mods)");
+        ((JLabel)instanceBox.getRenderer()).setHorizontalAlignment(JLabel.CENTER);
+        instanceBox.setSelectedItem(setting("instance.selected", DEFAULT_INSTANCE));
+        instanceBox.addActionListener(e -> {
+            Object sel = instanceBox.getSelectedItem();
+            if (sel != null) saveSetting("instance.selected", sel.toString());
+        });
 
         console = new JTextArea(10, 40);
         console.setEditable(false);
@@ -242,6 +491,11 @@ public class Program {
         statusLabel.setForeground(Color.LIGHT_GRAY);
         statusLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
 
+        monitorLabel = new JLabel(" ");
+        monitorLabel.setForeground(new Color(150, 150, 150));
+        monitorLabel.setFont(new Font("Consolas", Font.PLAIN, 11));
+        monitorLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+
         root.add(title);
         root.add(subtitle);
         root.add(Box.createVerticalStrut(15));
@@ -249,21 +503,32 @@ public class Program {
         root.add(Box.createVerticalStrut(10));
         root.add(loginBtn);
         root.add(Box.createVerticalStrut(10));
+        root.add(versionFilter);
+        root.add(Box.createVerticalStrut(5));
         root.add(versionBox);
+        root.add(Box.createVerticalStrut(5));
+        root.add(instanceBox);
         root.add(Box.createVerticalStrut(10));
         root.add(fetchBtn);
         root.add(Box.createVerticalStrut(10));
         root.add(launchBtn);
+        root.add(Box.createVerticalStrut(5));
+        root.add(cancelBtn);
         root.add(Box.createVerticalStrut(15));
         root.add(scroll);
         root.add(Box.createVerticalStrut(10));
         root.add(statusLabel);
+        root.add(monitorLabel);
 
         frame.add(root);
         frame.setVisible(true);
 
-        fetchBtn.addActionListener(e -> executor.submit(this::fetchVersions));
-        loginBtn.addActionListener(e -> executor.submit(this::mojangLogin));
+        fetchBtn.addActionListener(e -> executor().submit(() -> fetchVersions(true)));
+        versionBox.addItemListener(e -> {
+            if (e.getStateChange() == ItemEvent.SELECTED) schedulePrefetch((String) e.getItem());
+        });
+        loginBtn.addActionListener(e -> executor().submit(this::mojangLogin));
+        cancelBtn.addActionListener(e -> cancelLaunch());
         
         launchBtn.addActionListener(e -> {
             String selectedVersion = (String) versionBox.getSelectedItem();
@@ -271,12 +536,94 @@ public class Program {
                  JOptionPane.showMessageDialog(frame, "Please fetch versions first!", "Error", JOptionPane.ERROR_MESSAGE);
                  return;
             }
-            executor.submit(() -> launchGame(selectedVersion));
+            String instanceName = (String) instanceBox.getSelectedItem();
+            executor().submit(() -> launchGame(selectedVersion, instanceName == null ? DEFAULT_INSTANCE : instanceName));
         });
         
         log("System initialized. Waiting for user input...");
     }
 
+    /** Startup work that needs the network; runs once the window is on screen. */
+    private void startBackgroundTasks() {
+        // Show the last good version list immediately, then revalidate in the background
+        loadCachedVersions();
+        Future<?> prewarm = executor().submit(this::prewarmConnections);
+        Future<?> refresh = executor().submit(() -> fetchVersions(false));
+        if (!cdsTraining) prefetcher.submit(() -> inBackground(this::replayJournal));
+        if (cdsTraining) {
+            executor().submit(() -> {
+                try {
+                    prewarm.get();
+                    refresh.get();
+                } catch (Exception ignored) {}
+                System.exit(0);
+            });
+        }
+    }
+
+    private HttpClient http() {
+        HttpClient c = http;
+        if (c == null) {
+            synchronized (this) {
+                c = http;
+                if (c == null) {
+                    c = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_2)
+                            .connectTimeout(Duration.ofSeconds(15))
+                            .build();
+                    http = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private ExecutorService executor() {
+        ExecutorService ex = executor;
+        if (ex == null) {
+            synchronized (this) {
+                ex = executor;
+                if (ex == null) {
+                    ex = Executors.newCachedThreadPool();
+                    executor = ex;
+                }
+            }
+        }
+        return ex;
+    }
+
+    private JMenuItem darkItem(String text) {
+        JMenuItem item = new JMenuItem(text);
+        item.setForeground(Color.WHITE);
+        item.setBackground(Color.BLACK);
+        item.setOpaque(true);
+        return item;
+    }
+
+    /** Toggles one manifest type in versions.types and refreshes the list. */
+    private JCheckBoxMenuItem versionTypeItem(String text, String type) {
+        JCheckBoxMenuItem item = new JCheckBoxMenuItem(text, versionTypes().contains(type));
+        item.setForeground(Color.WHITE);
+        item.setBackground(Color.BLACK);
+        item.setOpaque(true);
+        item.addActionListener(e -> {
+            Set<String> types = new LinkedHashSet<>(versionTypes());
+            if (item.isSelected()) types.add(type); else types.remove(type);
+            saveSetting("versions.types", String.join(",", types));
+            applyVersionFilter();
+        });
+        return item;
+    }
+
+    private JCheckBoxMenuItem optionItem(String text, String key, boolean dflt) {
+        JCheckBoxMenuItem item = new JCheckBoxMenuItem(text, flag(key, dflt));
+        item.setForeground(Color.WHITE);
+        item.setBackground(Color.BLACK);
+        item.setOpaque(true);
+        item.addActionListener(e -> saveSetting(key, String.valueOf(item.isSelected())));
+        return item;
+    }
+
     private JButton createButton(String text, Color textColor) {
         JButton btn = new JButton(text);
         btn.setAlignmentX(Component.CENTER_ALIGNMENT);
@@ -288,10 +635,52 @@ public class Program {
     }
 
     // --- FETCH VERSIONS ---
-    private void fetchVersions() {
+
+    /** Populate the version list from the on-disk manifest (or installed versions) without touching the network. */
+    private void loadCachedVersions() {
+        VersionCatalog cached = VersionCatalog.EMPTY;
+        try {
+            if (Files.exists(MANIFEST_CACHE)) {
+                cached = parseManifest(new String(Files.readAllBytes(MANIFEST_CACHE), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            log("Could not read cached manifest: " + e.getMessage());
+        }
+        if (cached.isEmpty()) cached = installedVersions();
+        if (cached.isEmpty()) return;
+        catalog = cached;
+        showVersions();
+        log("Loaded " + cached.size() + " versions from cache. Checking for updates...");
+    }
+
+    /** Versions that already have a JSON on disk, usable when no manifest was ever cached. */
+    private VersionCatalog installedVersions() {
+        List<VersionInfo> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(VERSIONS_DIR)) {
+            for (Path dir : ds) {
+                String id = dir.getFileName().toString();
+                Path json = dir.resolve(id + ".json");
+                if (!Files.exists(json)) continue;
+                String releaseTime = null, type = null;
+                try {
+                    String versionJson = new String(Files.readAllBytes(json), StandardCharsets.UTF_8);
+                    releaseTime = extractJsonValue(versionJson, "releaseTime");
+                    // "type" alone would also match nested keys such as logging.client.type
+                    Matcher m = VERSION_TYPE_PATTERN.matcher(versionJson);
+                    if (m.find()) type = m.group(1);
+                } catch (IOException ignored) {}
+                out.add(new VersionInfo(id, type != null ? type : "release", null, releaseTime));
+            }
+        } catch (IOException ignored) {}
+        return new VersionCatalog(out);
+    }
+
+    private void fetchVersions(boolean interactive) {
         log("Fetching Mojang version manifest...");
-        status("Downloading manifest...");
-        toggleButtons(false);
+        if (interactive) {
+            status("Downloading manifest...");
+            toggleButtons(false);
+        }
 
         try {
             HttpRequest request = HttpRequest.newBuilder()
@@ -301,53 +690,91 @@ public class Program {
                     .GET()
                     .build();
 
-            HttpResponse<String> response = http.send(request, BodyHandlers.ofString());
+            HttpResponse<String> response = http().send(request, BodyHandlers.ofString());
             
             if (response.statusCode() != 200) {
                 throw new RuntimeException("HTTP " + response.statusCode());
             }
 
             String json = response.body();
-            parseManifest(json);
-
-            if (versions.isEmpty()) {
-                throw new RuntimeException("No release versions found in manifest.");
-            }
+            VersionCatalog fresh = parseManifest(json);
 
-            List<String> releaseList = new ArrayList<>();
-            synchronized(versions) {
-                for (String[] v : versions) {
-                    if ("release".equals(v[1])) {
-                        releaseList.add(v[0]);
-                    }
-                }
+            if (fresh.isEmpty()) {
+                throw new RuntimeException("No versions found in manifest.");
             }
 
+            // Only a manifest that parsed cleanly replaces the last good copy
+            writeAtomic(MANIFEST_CACHE, json.getBytes(StandardCharsets.UTF_8));
+            catalog = fresh;
+            showVersions();
             SwingUtilities.invokeLater(() -> {
-                versionBox.removeAllItems();
-                for (String v : releaseList) {
-                    versionBox.addItem(v);
-                }
-                if (versionBox.getItemCount() > 0) versionBox.setSelectedIndex(0);
                 status("Ready");
-                toggleButtons(true);
+                if (interactive) toggleButtons(true);
             });
 
-            log("Successfully loaded " + releaseList.size() + " release versions.");
+            log("Successfully loaded " + fresh.size() + " versions (" + fresh.ofType("release").size() + " releases).");
 
         } catch (Exception e) {
-            log("Error fetching versions: " + e.getMessage());
-            status("Error");
-            toggleButtons(true);
+            if (catalog.isEmpty()) {
+                log("Error fetching versions: " + e.getMessage());
+                status("Error");
+            } else {
+                log("Could not refresh versions (" + e.getMessage() + "), using cached list.");
+                status("Offline - using cached versions");
+            }
+            if (interactive) toggleButtons(true);
+        }
+    }
+
+    /**
+     * Headless --list-versions: the catalogue (refreshed unless offline) as VERSION<tab>id<tab>type
+     * lines, newest first, for the frontends. Log lines are interleaved and carry their [LOG] prefix.
+     */
+    private int listVersions(boolean offline) {
+        loadCachedVersions();
+        if (!offline) fetchVersions(false);
+        VersionCatalog c = catalog;
+        StringBuilder out = new StringBuilder();
+        for (VersionInfo v : c.all) out.append("VERSION\t").append(v.id).append('\t').append(v.type).append('\n');
+        System.out.print(out);
+        System.out.flush();
+        return c.isEmpty() ? 1 : 0;
+    }
+
+    /** Swap the combo box contents in one EDT pass; headless runs only keep the catalogue. */
+    private void showVersions() {
+        if (versionBox == null) return;
+        SwingUtilities.invokeLater(this::applyVersionFilter);
+    }
+
+    /**
+     * Rebuilds the combo box from the catalogue, the enabled types and the filter text, keeping the
+     * current selection if it still matches. Runs on the EDT for every keystroke in the filter field.
+     */
+    private void applyVersionFilter() {
+        if (versionBox == null) return;
+        String[] ids = catalog.ids(versionTypes(), versionFilter.getText());
+        Object selected = versionBox.getSelectedItem();
+        DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>(ids);
+        if (selected != null && model.getIndexOf(selected) >= 0) model.setSelectedItem(selected);
+        versionBox.setModel(model);
+    }
+
+    /** Manifest types shown in the version list (versions.types, comma separated). */
+    private Set<String> versionTypes() {
+        Set<String> types = new LinkedHashSet<>();
+        for (String t : setting("versions.types", "release").split(",")) {
+            if (!t.trim().isEmpty()) types.add(t.trim());
         }
+        return types;
     }
 
-    private void parseManifest(String json) {
-        versions.clear();
+    private VersionCatalog parseManifest(String json) {
+        List<VersionInfo> parsed = new ArrayList<>();
         int idx = json.indexOf("\"versions\"");
-        if (idx < 0) return;
+        if (idx < 0) return VersionCatalog.EMPTY;
         int arrStart = json.indexOf('[', idx);
-        if (arrStart < 0) return;
+        if (arrStart < 0) return VersionCatalog.EMPTY;
         int depth = 0, objStart = -1;
         for (int i = arrStart + 1; i < json.length(); i++) {
             char c = json.charAt(i);
@@ -357,17 +784,194 @@ public class Program {
             } else if (c == '}') {
                 depth--;
                 if (depth == 0 && objStart >= 0) {
-                    String obj = json.substring(objStart, i + 1);
-                    String id = extractJsonValue(obj, "id");
-                    String type = extractJsonValue(obj, "type");
-                    String url = extractJsonValue(obj, "url");
+                    // One pass over the entry's fields; manifests run to thousands of entries
+                    String id = null, type = null, url = null, releaseTime = null;
+                    Matcher m = JSON_PAIR_PATTERN.matcher(json).region(objStart, i + 1);
+                    while (m.find()) {
+                        String value = m.group(2);
+                        switch (m.group(1)) {
+                            case "id": if (id == null) id = value; break;
+                            case "type": if (type == null) type = value; break;
+                            case "url": if (url == null) url = value; break;
+                            case "releaseTime": if (releaseTime == null) releaseTime = value; break;
+                            default: break;
+                        }
+                    }
                     if (id != null && type != null && url != null) {
-                        versions.add(new String[]{id, type, url});
+                        parsed.add(new VersionInfo(id, type, url, releaseTime));
                     }
                     objStart = -1;
                 }
             } else if (c == ']' && depth == 0) break;
         }
+        return new VersionCatalog(parsed);
+    }
+
+    /** One manifest entry; url is null for versions only known from disk. */
+    private static final class VersionInfo {
+        final String id;
+        final String type;
+        final String url;
+        final long releaseTime;
+        final String lowerId;
+
+        VersionInfo(String id, String type, String url, String releaseTime) {
+            this.id = id;
+            this.type = type;
+            this.url = url;
+            this.releaseTime = releaseMillis(releaseTime);
+            this.lowerId = id.toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Epoch millis of a manifest timestamp (2024-06-13T08:24:03+00:00), or 0. The fixed layout is
+         * read directly; the general ISO parser is several times slower over a full manifest.
+         */
+        static long releaseMillis(String s) {
+            if (s == null) return 0;
+            try {
+                if (s.length() == 25 && s.charAt(10) == 'T' && (s.charAt(19) == '+' || s.charAt(19) == '-')) {
+                    long day = LocalDate.of(num(s, 0, 4), num(s, 5, 7), num(s, 8, 10)).toEpochDay();
+                    long secs = day * 86400 + num(s, 11, 13) * 3600L + num(s, 14, 16) * 60L + num(s, 17, 19);
+                    long offset = num(s, 20, 22) * 3600L + num(s, 23, 25) * 60L;
+                    return (s.charAt(19) == '+' ? secs - offset : secs + offset) * 1000;
+                }
+                return OffsetDateTime.parse(s).toInstant().toEpochMilli();
+            } catch (DateTimeException | NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static int num(String s, int from, int to) {
+            return Integer.parseInt(s, from, to, 10);
+        }
+    }
+
+    /**
+     * Immutable version catalogue, indexed by id and by type and ordered newest first by release time.
+     * A refresh builds a new one and publishes it with a single volatile write, so readers never
+     * see a half-updated list and lookups need no locking.
+     */
+    private static final class VersionCatalog {
+        static final VersionCatalog EMPTY = new VersionCatalog(Collections.emptyList());
+        // Stable: entries without a release time keep their relative order at the end
+        private static final Comparator<VersionInfo> NEWEST_FIRST =
+                Comparator.comparingLong((VersionInfo v) -> v.releaseTime).reversed();
+
+        private final List<VersionInfo> all;
+        private final Map<String, VersionInfo> byId;
+        private final Map<String, List<VersionInfo>> byType;
+
+        VersionCatalog(List<VersionInfo> entries) {
+            List<VersionInfo> sorted = new ArrayList<>(entries);
+            sorted.sort(NEWEST_FIRST);
+            Map<String, VersionInfo> ids = new HashMap<>(sorted.size() * 2);
+            Map<String, List<VersionInfo>> types = new HashMap<>();
+            for (VersionInfo v : sorted) {
+                ids.putIfAbsent(v.id, v);
+                types.computeIfAbsent(v.type, t -> new ArrayList<>()).add(v);
+            }
+            types.replaceAll((t, list) -> Collections.unmodifiableList(list));
+            all = Collections.unmodifiableList(sorted);
+            byId = Collections.unmodifiableMap(ids);
+            byType = Collections.unmodifiableMap(types);
+        }
+
+        VersionInfo get(String id) {
+            return byId.get(id);
+        }
+
+        List<VersionInfo> ofType(String type) {
+            return byType.getOrDefault(type, Collections.emptyList());
+        }
+
+        int size() {
+            return all.size();
+        }
+
+        boolean isEmpty() {
+            return all.isEmpty();
+        }
+
+        /** Ids of the given types containing query (ignoring case), newest first. */
+        String[] ids(Set<String> types, String query) {
+            String q = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+            List<VersionInfo> found = new ArrayList<>();
+            for (String type : types) {
+                for (VersionInfo v : ofType(type)) {
+                    if (q.isEmpty() || v.lowerId.contains(q)) found.add(v);
+                }
+            }
+            // Each type's list is already newest first; only a mix of types needs merging
+            if (types.size() > 1) found.sort(NEWEST_FIRST);
+            String[] out = new String[found.size()];
+            for (int i = 0; i < out.length; i++) out[i] = found.get(i).id;
+            return out;
+        }
+    }
+
+    // --- CONNECTION PRE-WARMING ---
+
+    /** Hosts the launch phases will contact, taken from the cached manifest and version JSONs. */
+    private Set<String> knownHosts() {
+        Set<String> hosts = new LinkedHashSet<>();
+        hosts.add(URI.create(MANIFEST_URL).getHost());
+        hosts.add(URI.create(RESOURCES_URL).getHost());
+        hosts.add("libraries.minecraft.net");
+        List<Path> sources = new ArrayList<>();
+        if (Files.exists(MANIFEST_CACHE)) sources.add(MANIFEST_CACHE);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(VERSIONS_DIR)) {
+            for (Path dir : ds) {
+                Path json = dir.resolve(dir.getFileName() + ".json");
+                if (Files.exists(json)) sources.add(json);
+            }
+        } catch (IOException ignored) {}
+        for (Path src : sources) {
+            try {
+                Matcher m = URL_HOST_PATTERN.matcher(new String(Files.readAllBytes(src), StandardCharsets.UTF_8));
+                while (m.find()) hosts.add(m.group(1));
+            } catch (IOException ignored) {}
+        }
+        return hosts;
+    }
+
+    /**
+     * Resolve every known host and open a pooled HTTP/2 connection to it with a HEAD request,
+     * so the first real request of each phase skips DNS, TCP and TLS setup.
+     */
+    private void prewarmConnections() {
+        Set<String> hosts = knownHosts();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (String host : hosts) {
+            pending.add(CompletableFuture.runAsync(() -> {
+                try {
+                    long t0 = System.nanoTime();
+                    InetAddress.getAllByName(host);
+                    long t1 = System.nanoTime();
+                    HttpRequest req = HttpRequest.newBuilder()
+                            .uri(URI.create("https://" + host + "/"))
+                            .timeout(Duration.ofSeconds(10))
+                            .method("HEAD", BodyPublishers.noBody())
+                            .build();
+                    http().send(req, BodyHandlers.discarding());
+                    long t2 = System.nanoTime();
+                    metric("dns." + host, t1 - t0);
+                    metric("connect." + host, t2 - t1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    log("Pre-warm of " + host + " failed: " + e.getMessage());
+                }
+            }, executor()));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        log("Pre-warmed connections to " + hosts.size() + " hosts.");
+    }
+
+    private void metric(String name, long nanos) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+        metrics.put(name, ms);
+        log("[METRIC] " + name + " = " + ms + " ms");
     }
 
     // --- MOJANG AUTHENTICATION ---
@@ -389,7 +993,7 @@ public class Program {
         status("Logging in...");
         toggleButtons(false);
 
-        executor.submit(() -> {
+        executor().submit(() -> {
             try {
                 String payload = String.format(
                     "{\"agent\":{\"name\":\"Minecraft\",\"version\":1},\"username\":\"%s\",\"password\":\"%s\"}",
@@ -402,7 +1006,7 @@ public class Program {
                         .POST(BodyPublishers.ofString(payload))
                         .build();
 
-                HttpResponse<String> response = http.send(request, BodyHandlers.ofString());
+                HttpResponse<String> response = http().send(request, BodyHandlers.ofString());
                 String respBody = response.body();
 
                 if (response.statusCode() != 200) {
@@ -447,269 +1051,2977 @@ public class Program {
     }
 
     // --- REAL LAUNCH ---
-    private void launchGame(String versionId) {
+    private void launchGame(String versionId, String instanceName) {
         if (!isLoggedIn || mojangAccessToken == null) {
             JOptionPane.showMessageDialog(frame, "Please log in first.", "Authentication Required", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
         status("Preparing...");
-        log("=== Starting launch for " + versionId + " ===");
+        log("=== Starting launch for " + versionId + " (instance " + instanceName + ") ===");
         toggleButtons(false);
 
-        executor.submit(() -> {
-            try {
-                // Find version URL
-                String versionUrl = null;
-                synchronized (versions) {
-                    for (String[] v : versions) {
-                        if (v[0].equals(versionId)) {
-                            versionUrl = v[2];
-                            break;
-                        }
-                    }
-                }
-                if (versionUrl == null) throw new Exception("Version not found in manifest");
-
-                // Version directory and JSON
-                Path versionDir = VERSIONS_DIR.resolve(versionId);
-                Files.createDirectories(versionDir);
-                Path jsonPath = versionDir.resolve(versionId + ".json");
-                if (!Files.exists(jsonPath)) {
-                    log("Downloading version JSON...");
-                    String json = httpGet(versionUrl);
-                    Files.write(jsonPath, json.getBytes(StandardCharsets.UTF_8));
-                }
-                String versionJson = new String(Files.readAllBytes(jsonPath), StandardCharsets.UTF_8);
-                prog(10);
-
-                // Download client JAR
-                Path jarPath = versionDir.resolve(versionId + ".jar");
-                if (!Files.exists(jarPath)) {
-                    String clientUrl = findClientUrl(versionJson, versionId);
-                    if (clientUrl == null) throw new Exception("No client URL found");
-                    log("Downloading client JAR...");
-                    download(clientUrl, jarPath);
-                }
-                log("Client size: " + Files.size(jarPath) / 1024 + " KB");
-                prog(20);
-
-                // Download libraries
-                log("Resolving libraries...");
-                List<Path> libPaths = resolveLibraries(versionJson);
-                prog(55);
-
-                // Download assets
-                log("Downloading assets...");
-                String assetId = getNested(versionJson, "assetIndex", "id");
-                String assetUrl = getNested(versionJson, "assetIndex", "url");
-                if (assetId != null && assetUrl != null) {
-                    Path assetIndexPath = ASSETS_DIR.resolve("indexes").resolve(assetId + ".json");
-                    if (!Files.exists(assetIndexPath)) {
-                        String assetIndexJson = httpGet(assetUrl);
-                        Files.write(assetIndexPath, assetIndexJson.getBytes(StandardCharsets.UTF_8));
-                    }
-                    String assetIndexJson = new String(Files.readAllBytes(assetIndexPath), StandardCharsets.UTF_8);
-                    downloadAssets(assetIndexJson);
-                } else {
-                    assetId = "legacy";
-                }
-                prog(65);
-
-                // Extract natives
-                log("Extracting natives...");
-                Path nativesDir = NATIVES_DIR.resolve(versionId);
-                Files.createDirectories(nativesDir);
-                extractNatives(libPaths, nativesDir);
-                prog(75);
-
-                // Build classpath
-                StringBuilder classpath = new StringBuilder();
-                String sep = System.getProperty("path.separator");
-                for (Path lib : libPaths) {
-                    if (Files.exists(lib)) {
-                        classpath.append(lib.toAbsolutePath()).append(sep);
-                    }
+        synchronized (launchLock) {
+            launchCancelled = false;
+            launchTask = executor().submit(() -> runLaunch(versionId, instanceName));
+        }
+        setCancelable(true);
+    }
+
+    /**
+     * --launch: installs and starts a version without a window for an account signed in elsewhere
+     * (the catclient frontends), then stays attached until the game exits. Returns its exit code.
+     */
+    private int launchHeadless(String versionId, String instanceName, String username, String uuid, String accessToken) {
+        mojangUsername = username;
+        mojangUuid = uuid;
+        mojangAccessToken = accessToken;
+        userType = "msa";
+        isLoggedIn = true;
+        if (!Files.exists(VERSIONS_DIR.resolve(versionId).resolve(versionId + ".json"))) {
+            loadCachedVersions();
+            VersionInfo info = catalog.get(versionId);
+            if (info == null || info.url == null) fetchVersions(false);
+        }
+        Process proc = runLaunch(versionId, instanceName);
+        if (proc == null) return 1;
+        try {
+            int code = proc.waitFor();
+            // Let the supervisor drain the output and write the session summary
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!instances.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            return code;
+        } catch (InterruptedException e) {
+            proc.destroy();
+            return 1;
+        }
+    }
+
+    /** Installs and starts versionId; returns the game process, or null when the launch failed or was cancelled. */
+    private Process runLaunch(String versionId, String instanceName) {
+        Path looseMarker = null;
+        CacheWarmer warmer = null;
+        try {
+            // Version JSON (a cached JSON needs no manifest or network)
+            String versionJson = ensureVersionJson(versionId);
+            Path gameDir = gameDirFor(instanceName);
+            journal("PLAN", versionId);
+            prog(10);
+            String indexId = getNested(versionJson, "assetIndex", "id");
+            if (indexId != null && flag("assets.packStore", false)) {
+                // Keeps other launchers from removing the loose copies this game is about to read
+                looseMarker = retainLooseAssets(indexId, ProcessHandle.current().pid());
+            }
+
+            // Client jar, libraries, runtime and assets are independent, so they download side by side
+            log("Resolving libraries...");
+            List<Path> libPaths = resolveLibraries(versionJson);
+            ExecutorService io = executor();
+            Future<Path> jarTask = io.submit(interactive(() -> ensureClientJar(versionId, versionJson)));
+            Future<?> libTask = io.submit(interactive(() -> {
+                downloadLibraries(versionJson, true);
+                return null;
+            }));
+            Future<JavaRuntime> runtimeTask = io.submit(interactive(() -> ensureJavaRuntime(versionJson)));
+            Future<String> assetTask = io.submit(interactive(() -> {
+                String index = ensureAssetIndex(versionJson);
+                if (index != null) {
+                    log("Downloading assets...");
+                    downloadAssets(index, true);
                 }
-                classpath.append(jarPath.toAbsolutePath());
+                return index;
+            }));
+            List<Future<?>> installTasks = Arrays.asList(jarTask, libTask, runtimeTask, assetTask);
+
+            Path jarPath = await(jarTask, installTasks);
+            log("Client size: " + Files.size(jarPath) / 1024 + " KB");
+            prog(20);
+            await(libTask, installTasks);
+            prog(50);
+            JavaRuntime runtime = await(runtimeTask, installTasks);
+            prog(55);
 
-                // Determine main class
-                String mainClass = js(versionJson, "mainClass");
-                if (mainClass == null) {
-                    mainClass = versionId.startsWith("b1.") || versionId.startsWith("a1.") || versionId.startsWith("c0.") ?
-                        "net.minecraft.launchwrapper.Launch" : "net.minecraft.client.main.Minecraft";
+            // Read the jars ahead while assets, natives and arguments are prepared
+            if (flag("game.warmCache", false)) {
+                List<Path> warmFiles = new ArrayList<>(libPaths);
+                warmFiles.add(jarPath);
+                Path javaBin = Paths.get(runtime.executable);
+                if (javaBin.isAbsolute() && javaBin.getParent() != null) {
+                    // The runtime's module image is read on every JVM start
+                    Path modules = javaBin.getParent().resolveSibling("lib").resolve("modules");
+                    if (Files.isRegularFile(modules)) warmFiles.add(modules);
                 }
+                warmer = new CacheWarmer(warmFiles);
+            }
 
-                // Build command
-                List<String> cmd = new ArrayList<>();
-                cmd.add("java");
-                if (osName().equals("osx")) cmd.add("-XstartOnFirstThread");
-                String javaVer = System.getProperty("java.version");
-                if (!javaVer.startsWith("1.") && !javaVer.startsWith("8")) {
-                    try {
-                        int major = Integer.parseInt(javaVer.split("[^0-9]")[0]);
-                        if (major >= 21) cmd.add("--enable-native-access=ALL-UNNAMED");
-                    } catch (NumberFormatException ignored) {
-                        cmd.add("--enable-native-access=ALL-UNNAMED");
-                    }
+            // Assets are usually the last to finish
+            String assetId = getNested(versionJson, "assetIndex", "id");
+            String assetIndexJson = await(assetTask, installTasks);
+            if (assetIndexJson == null) assetId = "legacy";
+            prog(65);
+
+            // Optional integrity check; unchanged files are answered from the hash cache
+            if (flag("launch.verify", false)) {
+                int bad = verifyFiles(expectedFiles(versionId, versionJson), true);
+                if (bad != 0) throw new IOException(bad + " files failed verification");
+            }
+
+            // Name-based layout for old asset indexes, linked from the hash store
+            Path gameAssets = assetIndexJson != null ? materializeLegacyAssets(assetIndexJson, assetId, gameDir) : null;
+            if (gameAssets == null) gameAssets = ASSETS_DIR.resolve("virtual").resolve("legacy");
+
+            // Extract natives
+            log("Extracting natives...");
+            Path nativesDir = NATIVES_DIR.resolve(versionId);
+            Files.createDirectories(nativesDir);
+            extractNatives(libPaths, nativesDir);
+            // Stamped before the PLAN entry closes, so cache GC always sees this version as live
+            writeAtomic(VERSIONS_DIR.resolve(versionId).resolve("last-launch"),
+                    String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+            journal("COMPLETE", versionId);
+            prog(75);
+
+            // Build classpath
+            StringBuilder classpath = new StringBuilder();
+            String sep = System.getProperty("path.separator");
+            for (Path lib : libPaths) {
+                if (Files.exists(lib)) {
+                    classpath.append(lib.toAbsolutePath()).append(sep);
                 }
-                cmd.add("-Xmx2G");
-                cmd.add("-Xms512M");
-                cmd.add("-Djava.library.path=" + nativesDir.toAbsolutePath());
-                cmd.add("-cp");
-                cmd.add(classpath.toString());
-                cmd.add(mainClass);
-
-                // Add Minecraft arguments
-                String minecraftArgs = js(versionJson, "minecraftArguments");
-                if (minecraftArgs != null) {
-                    minecraftArgs = minecraftArgs
-                            .replace("${auth_player_name}", mojangUsername)
-                            .replace("${version_name}", versionId)
-                            .replace("${game_directory}", ROOT.toAbsolutePath().toString())
-                            .replace("${assets_root}", ASSETS_DIR.toAbsolutePath().toString())
-                            .replace("${assets_index_name}", assetId)
-                            .replace("${auth_uuid}", mojangUuid.replace("-", ""))
-                            .replace("${auth_access_token}", mojangAccessToken)
-                            .replace("${user_properties}", "{}")
-                            .replace("${user_type}", "mojang");
-                    for (String arg : minecraftArgs.split(" ")) {
-                        if (!arg.isEmpty()) cmd.add(arg);
-                    }
-                } else {
-                    cmd.add("--username"); cmd.add(mojangUsername);
-                    cmd.add("--version"); cmd.add(versionId);
-                    cmd.add("--gameDir"); cmd.add(ROOT.toAbsolutePath().toString());
-                    cmd.add("--assetsDir"); cmd.add(ASSETS_DIR.toAbsolutePath().toString());
-                    cmd.add("--assetIndex"); cmd.add(assetId);
-                    cmd.add("--uuid"); cmd.add(mojangUuid.replace("-", ""));
-                    cmd.add("--accessToken"); cmd.add(mojangAccessToken);
-                    cmd.add("--userType"); cmd.add("mojang");
-                    cmd.add("--versionType"); cmd.add("release");
-                }
-
-                log("Launch command: " + String.join(" ", cmd));
-                prog(90);
-
-                // Launch process
-                ProcessBuilder pb = new ProcessBuilder(cmd);
-                pb.directory(ROOT.toFile());
-                pb.redirectErrorStream(true);
-                Process proc = pb.start();
-                prog(100);
-                status("Game running (PID " + proc.pid() + ")");
-
-                // Stream game output to console
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        log("[MC] " + line);
-                    }
+            }
+            classpath.append(jarPath.toAbsolutePath());
+
+            // Determine main class
+            String mainClass = js(versionJson, "mainClass");
+            if (mainClass == null) {
+                mainClass = versionId.startsWith("b1.") || versionId.startsWith("a1.") || versionId.startsWith("c0.") ?
+                    "net.minecraft.launchwrapper.Launch" : "net.minecraft.client.main.Minecraft";
+            }
+
+            // Build command
+            List<String> cmd = new ArrayList<>();
+            cmd.add(runtime.executable);
+            if (osName().equals("osx")) cmd.add("-XstartOnFirstThread");
+            int javaMajor = runtime.major;
+            if (javaMajor >= 21) cmd.add("--enable-native-access=ALL-UNNAMED");
+            Path cdsTraining = addCdsArgs(cmd, versionId, runtime.executable, classpath.toString(), javaMajor);
+            JvmProfile profile = chooseJvmProfile(versionId, runtime);
+            cmd.addAll(profile.args);
+            recordJvmProfile(versionId, profile);
+            Path gcLog = addGcLogArgs(cmd, versionId, gameDir, javaMajor);
+            cmd.add("-Djava.library.path=" + nativesDir.toAbsolutePath());
+            cmd.add("-cp");
+            cmd.add(classpath.toString());
+            cmd.add(mainClass);
+
+            // Add Minecraft arguments
+            // The version's own JSON says what it is; versions missing from the manifest still get their type
+            VersionInfo info = catalog.get(versionId);
+            Matcher typeMatch = VERSION_TYPE_PATTERN.matcher(versionJson);
+            String versionType = typeMatch.find() ? typeMatch.group(1) : info != null ? info.type : "release";
+            String minecraftArgs = js(versionJson, "minecraftArguments");
+            if (minecraftArgs != null) {
+                minecraftArgs = minecraftArgs
+                        .replace("${auth_player_name}", mojangUsername)
+                        .replace("${version_name}", versionId)
+                        .replace("${game_directory}", gameDir.toAbsolutePath().toString())
+                        .replace("${assets_root}", ASSETS_DIR.toAbsolutePath().toString())
+                        .replace("${game_assets}", gameAssets.toAbsolutePath().toString())
+                        .replace("${assets_index_name}", assetId)
+                        .replace("${auth_uuid}", mojangUuid.replace("-", ""))
+                        .replace("${auth_access_token}", mojangAccessToken)
+                        .replace("${user_properties}", "{}")
+                        .replace("${user_type}", userType)
+                        .replace("${version_type}", versionType);
+                for (String arg : minecraftArgs.split(" ")) {
+                    if (!arg.isEmpty()) cmd.add(arg);
                 }
-                int exit = proc.waitFor();
-                log("Game exited with code " + exit);
-                status("Ready");
-                prog(0);
-                toggleButtons(true);
+            } else {
+                cmd.add("--username"); cmd.add(mojangUsername);
+                cmd.add("--version"); cmd.add(versionId);
+                cmd.add("--gameDir"); cmd.add(gameDir.toAbsolutePath().toString());
+                cmd.add("--assetsDir"); cmd.add(ASSETS_DIR.toAbsolutePath().toString());
+                cmd.add("--assetIndex"); cmd.add(assetId);
+                cmd.add("--uuid"); cmd.add(mojangUuid.replace("-", ""));
+                cmd.add("--accessToken"); cmd.add(mojangAccessToken);
+                cmd.add("--userType"); cmd.add(userType);
+                cmd.add("--versionType"); cmd.add(versionType);
+            }
 
-            } catch (Exception e) {
+            List<String> shown = new ArrayList<>(cmd);
+            shown.replaceAll(arg -> arg.equals(mojangAccessToken) ? "<access token>" : arg);
+            log("Launch command: " + String.join(" ", shown));
+            prog(90);
+            if (warmer != null) warmer.finish();
+
+            // Launch process; past this point there is nothing left to cancel
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.directory(gameDir.toFile());
+            pb.redirectErrorStream(true);
+            Process proc;
+            synchronized (launchLock) {
+                if (launchCancelled || Thread.interrupted()) throw new InterruptedException();
+                proc = pb.start();
+                launchTask = null;
+            }
+            setCancelable(false);
+            if (looseMarker != null) looseMarker = handOverLooseAssets(looseMarker, proc.pid());
+            prog(100);
+
+            // Hand the process to the supervisor; this thread and the UI are free again
+            String cp = classpath.toString();
+            Path marker = looseMarker;
+            GameInstance inst = supervise(proc, versionId, instanceName, mojangUsername, () -> {
+                if (cdsTraining != null) finishCdsTraining(versionId, cdsTraining, runtime.executable, cp);
+                if (marker != null) releaseLooseAssets(marker);
+            });
+            log("Started instance #" + inst.id + " (PID " + proc.pid() + ")");
+            if (gcLog != null) startGcTail(inst, gcLog);
+            prog(0);
+            toggleButtons(true);
+            return proc;
+
+        } catch (Exception e) {
+            if (launchCancelled) {
+                journal("CANCEL", versionId);
+                log("Launch of " + versionId + " cancelled.");
+                status("Cancelled");
+            } else {
                 log("Launch error: " + e.getMessage());
                 e.printStackTrace();
                 status("Launch failed");
-                toggleButtons(true);
             }
-        });
+            synchronized (launchLock) {
+                launchTask = null;
+            }
+            if (looseMarker != null) releaseLooseAssets(looseMarker);
+            setCancelable(false);
+            toggleButtons(true);
+            return null;
+        } finally {
+            // Failed and cancelled launches never reach finish()
+            if (warmer != null) warmer.close();
+        }
     }
 
-    // --- HELPER METHODS for downloading and resolving ---
-
-    private String httpGet(String url) throws IOException, InterruptedException {
-        HttpRequest req = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
-        HttpResponse<String> resp = http.send(req, BodyHandlers.ofString());
-        if (resp.statusCode() != 200) throw new IOException("HTTP " + resp.statusCode());
-        return resp.body();
+    /**
+     * Waits for one install step. If it fails, or the launch is cancelled while waiting,
+     * the remaining steps are interrupted so their downloads stop as well.
+     */
+    private static <T> T await(Future<T> task, List<Future<?>> all) throws Exception {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            for (Future<?> f : all) f.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            for (Future<?> f : all) f.cancel(true);
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+        }
     }
 
-    private void download(String url, Path dest) throws IOException, InterruptedException {
-        Files.createDirectories(dest.getParent());
-        HttpRequest req = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
-        HttpResponse<Path> resp = http.send(req, BodyHandlers.ofFile(dest));
-        if (resp.statusCode() != 200) throw new IOException("Download failed: " + resp.statusCode());
+    /** Interrupts the launch in progress; downloads abort and delete their partial files. */
+    private void cancelLaunch() {
+        synchronized (launchLock) {
+            if (launchTask == null) return;
+            launchCancelled = true;
+            launchTask.cancel(true);
+        }
+        log("Cancelling launch...");
+        status("Cancelling...");
     }
 
-    private String findClientUrl(String versionJson, String versionId) {
-        String u = getNested(versionJson, "downloads", "client", "url");
-        if (u != null) return u;
-        // fallback
-        return "https://s3.amazonaws.com/Minecraft.Download/versions/" + versionId + "/" + versionId + ".jar";
+    private void setCancelable(boolean cancelable) {
+        if (cancelBtn == null) return;
+        SwingUtilities.invokeLater(() -> cancelBtn.setEnabled(cancelable));
     }
 
-    private List<Path> resolveLibraries(String versionJson) {
-        List<Path> out = new ArrayList<>();
-        String os = osName();
-        int libIdx = versionJson.indexOf("\"libraries\"");
-        if (libIdx < 0) return out;
-        int arrStart = versionJson.indexOf('[', libIdx);
-        if (arrStart < 0) return out;
-        int depth = 0, objStart = -1;
-        for (int i = arrStart + 1; i < versionJson.length(); i++) {
-            char c = versionJson.charAt(i);
-            if (c == '{') {
-                if (depth == 0) objStart = i;
-                depth++;
-            } else if (c == '}') {
-                depth--;
-                if (depth == 0 && objStart >= 0) {
-                    String libObj = versionJson.substring(objStart, i + 1);
-                    resolveLibrary(libObj, out, os);
-                    objStart = -1;
+    /**
+     * Stops all launcher work before exiting: the launch and background tasks are interrupted
+     * (aborting their HTTP exchanges and partial files) and given a bounded time to finish.
+     * Running games are separate processes and keep running.
+     */
+    private void shutdown() {
+        synchronized (launchLock) {
+            if (launchTask != null) launchTask.cancel(true);
+        }
+        ExecutorService ex = executor;
+        List<ExecutorService> pools = new ArrayList<>(Arrays.asList(prefetcher, monitor));
+        if (ex != null) pools.add(ex);
+        for (ExecutorService pool : pools) pool.shutdownNow();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        try {
+            for (ExecutorService pool : pools) {
+                if (!pool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    System.err.println("Launcher tasks still running at exit");
+                    break;
                 }
-            } else if (c == ']' && depth == 0) break;
+            }
+        } catch (InterruptedException ignored) {
+            // exiting anyway
+        }
+        synchronized (journalLock) {
+            try {
+                if (journal != null) journal.close();
+            } catch (IOException ignored) {}
         }
-        return out;
     }
 
-    private void resolveLibrary(String libObj, List<Path> out, String os) {
-        if (libObj.contains("\"rules\"") && !rulesOk(libObj, os)) return;
+    private void exitLauncher() {
+        if (frame != null) frame.dispose();
+        Thread t = new Thread(() -> {
+            shutdown();
+            System.exit(0);
+        }, "shutdown");
+        t.start();
+    }
 
-        // artifact path & url (3 levels: downloads.artifact.path)
-        String path = getNested(libObj, "downloads", "artifact", "path");
-        String url = getNested(libObj, "downloads", "artifact", "url");
-        if (path != null) {
-            Path file = LIBRARIES_DIR.resolve(path.replace('/', File.separatorChar));
-            out.add(file);
-            if (!Files.exists(file) && url != null) {
-                try {
-                    Files.createDirectories(file.getParent());
-                    download(url, file);
-                    log("  Downloaded library: " + file.getFileName());
-                } catch (Exception e) {
-                    log("  Failed to download library: " + e.getMessage());
-                }
-            }
-        }
+    // --- PROCESS SUPERVISOR ---
 
-        // handle natives (4 levels: downloads.classifiers.<classifier>.path)
-        String classifier = "natives-" + os;
-        if (libObj.contains("\"classifiers\"") && libObj.contains(classifier)) {
-            String nativePath = getNested(libObj, "downloads", "classifiers", classifier, "path");
-            String nativeUrl = getNested(libObj, "downloads", "classifiers", classifier, "url");
-            if (nativePath != null) {
-                Path file = LIBRARIES_DIR.resolve(nativePath.replace('/', File.separatorChar));
-                out.add(file);
-                if (!Files.exists(file) && nativeUrl != null) {
+    /** A running game process and the most recent lines of its output. */
+    private static final class GameInstance {
+        static final int OUTPUT_LINES = 2000;
+
+        final int id;
+        final String versionId;
+        final String gameInstance;
+        final String account;
+        final Process process;
+        final long startedAt = System.currentTimeMillis();
+        private final ArrayDeque<String> output = new ArrayDeque<>();
+        volatile ProcSampler sampler;
+        volatile GcAnalyzer gc;
+        volatile ScheduledFuture<?> sampling;
+
+        GameInstance(int id, String versionId, String gameInstance, String account, Process process) {
+            this.id = id;
+            this.versionId = versionId;
+            this.gameInstance = gameInstance;
+            this.account = account;
+            this.process = process;
+        }
+
+        synchronized void append(String line) {
+            if (output.size() == OUTPUT_LINES) output.removeFirst();
+            output.addLast(line);
+        }
+
+        synchronized String tail() {
+            return String.join("\n", output);
+        }
+
+        String label() {
+            return "#" + id + " " + versionId + " [" + gameInstance + "] (" + account + ", PID " + process.pid() + ")";
+        }
+    }
+
+    /**
+     * Registers a started game: its output is pumped into a per-instance buffer on its own
+     * (virtual, where available) thread, and onExit runs once the process has ended.
+     */
+    private GameInstance supervise(Process proc, String versionId, String gameInstance, String account, Runnable onExit) {
+        GameInstance inst = new GameInstance(nextInstanceId.getAndIncrement(), versionId, gameInstance, account, proc);
+        instances.put(inst.id, inst);
+        startSampling(inst);
+        Thread pump = startPumpThread("game-output-" + inst.id, () -> {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    inst.append(line);
+                    log("[MC#" + inst.id + "] " + line);
+                }
+            } catch (IOException ignored) {
+                // stream closes when the process is destroyed
+            }
+        });
+        proc.onExit().thenAccept(p -> {
+            try {
+                pump.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            log("Instance #" + inst.id + " (" + versionId + ") exited with code " + p.exitValue());
+            if (inst.sampling != null) inst.sampling.cancel(false);
+            if (inst.sampler != null) writeSessionSummary(inst, p.exitValue());
+            try {
+                onExit.run();
+            } finally {
+                // Removed last: a headless launch waits for this before it exits
+                instances.remove(inst.id);
+                updateInstanceStatus();
+            }
+        });
+        updateInstanceStatus();
+        return inst;
+    }
+
+    /** Starts r on a virtual thread when the JVM has them (Java 21+), otherwise on a daemon thread. */
+    private static Thread startPumpThread(String name, Runnable r) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class).invoke(builder, name);
+            return (Thread) builderType.getMethod("start", Runnable.class).invoke(builder, r);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            t.start();
+            return t;
+        }
+    }
+
+    private void updateInstanceStatus() {
+        int n = instances.size();
+        status(n == 0 ? "Ready" : n + (n == 1 ? " instance" : " instances") + " running");
+        if (n == 0 && monitorLabel != null) SwingUtilities.invokeLater(() -> monitorLabel.setText(" "));
+    }
+
+    // --- CACHE GARBAGE COLLECTION ---
+
+    /** Files a sweep would delete, and the versions it would evict. */
+    private static final class CachePlan {
+        final List<Path> files = new ArrayList<>();
+        final List<String> evicted = new ArrayList<>();
+        // Packed objects no kept version references, dropped by compacting the pack
+        final Set<String> packed = new HashSet<>();
+        long packSlack;
+        long bytes;
+    }
+
+    /**
+     * Mark: every installed version (minus those not launched within gc.maxAgeDays, if set, and
+     * neither running nor planned in the install journal by any launcher) contributes its jar,
+     * libraries, natives, asset index and objects, CDS archive and runtime.
+     * Sweep: anything else under libraries, assets, natives, cds, runtimes and evicted version
+     * directories, loose copies of packed objects no running game needs, and unreferenced
+     * objects in the pack. Files touched in the last hour are left alone in case another
+     * launcher is still writing them.
+     */
+    private CachePlan planCacheGc() throws IOException {
+        long maxAgeDays = numberSetting("gc.maxAgeDays", 0);
+        long cutoff = maxAgeDays > 0 ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays) : Long.MIN_VALUE;
+        Set<String> running = plannedVersions();
+        for (GameInstance inst : instances.values()) running.add(inst.versionId);
+
+        CachePlan plan = new CachePlan();
+        Set<Path> live = new HashSet<>();
+        Set<String> liveHashes = new HashSet<>();
+        Set<String> liveRuntimes = new HashSet<>();
+        Path objects = ASSETS_DIR.resolve("objects");
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(VERSIONS_DIR, Files::isDirectory)) {
+            for (Path dir : ds) {
+                String id = dir.getFileName().toString();
+                Path json = dir.resolve(id + ".json");
+                if (!Files.exists(json)) continue;
+                if (lastLaunch(dir, json) < cutoff && !running.contains(id)) {
+                    plan.evicted.add(id);
+                    continue;
+                }
+                String versionJson = new String(Files.readAllBytes(json), StandardCharsets.UTF_8);
+                for (Path lib : resolveLibraries(versionJson)) live.add(lib.toAbsolutePath());
+                live.add(NATIVES_DIR.resolve(id).toAbsolutePath());
+                live.add(CDS_DIR.resolve(id + ".jsa").toAbsolutePath());
+                live.add(CDS_DIR.resolve(id + ".fp").toAbsolutePath());
+                String component = getNested(versionJson, "javaVersion", "component");
+                liveRuntimes.add(component != null ? component : "jre-legacy");
+                String assetId = getNested(versionJson, "assetIndex", "id");
+                if (assetId != null) {
+                    Path index = ASSETS_DIR.resolve("indexes").resolve(assetId + ".json");
+                    live.add(index.toAbsolutePath());
+                    if (Files.exists(index)) {
+                        Matcher m = ASSET_HASH_PATTERN.matcher(new String(Files.readAllBytes(index), StandardCharsets.UTF_8));
+                        while (m.find()) {
+                            liveHashes.add(m.group(1));
+                            live.add(objects.resolve(m.group(1).substring(0, 2)).resolve(m.group(1)).toAbsolutePath());
+                        }
+                    }
+                }
+            }
+        }
+
+        long recent = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        for (String id : plan.evicted) collect(VERSIONS_DIR.resolve(id), p -> true, recent, plan);
+        collect(LIBRARIES_DIR, p -> !live.contains(p), recent, plan);
+        collect(ASSETS_DIR.resolve("indexes"), p -> !live.contains(p), recent, plan);
+        PackStore pack = flag("assets.packStore", false) ? packStore() : null;
+        if (pack == null) {
+            collect(objects, p -> !live.contains(p), recent, plan);
+        } else {
+            Set<String> inUse = looseAssetsInUse();
+            collect(objects, p -> {
+                String hash = p.getFileName().toString();
+                return !live.contains(p) || !inUse.contains(hash) && packHolds(pack, hash);
+            }, recent, plan);
+            for (Map.Entry<String, Long> e : pack.dead(liveHashes).entrySet()) {
+                plan.packed.add(e.getKey());
+                plan.bytes += e.getValue();
+            }
+            plan.packSlack = pack.slack();
+            plan.bytes += plan.packSlack;
+        }
+        collect(CDS_DIR, p -> !live.contains(p), recent, plan);
+        // natives/<id> and runtimes/<component> are live or dead as whole directories
+        collect(NATIVES_DIR, p -> !live.contains(NATIVES_DIR.resolve(NATIVES_DIR.relativize(p).getName(0)).toAbsolutePath()), recent, plan);
+        collect(RUNTIMES_DIR, p -> {
+            Path rel = RUNTIMES_DIR.relativize(p);
+            return rel.getNameCount() > 1 && !liveRuntimes.contains(rel.getName(0).toString());
+        }, recent, plan);
+        return plan;
+    }
+
+    private interface PathFilter {
+        boolean test(Path p);
+    }
+
+    private static void collect(Path root, PathFilter dead, long recentMillis, CachePlan plan) throws IOException {
+        if (!Files.isDirectory(root)) return;
+        Path absRoot = root.toAbsolutePath();
+        try (Stream<Path> walk = Files.walk(absRoot)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                if (!Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS) && !Files.isSymbolicLink(p)) continue;
+                if (!dead.test(p)) continue;
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.lastModifiedTime().toMillis() > recentMillis) continue;
+                plan.files.add(p);
+                plan.bytes += attrs.size();
+            }
+        }
+    }
+
+    /** Versions with a PLAN entry no COMPLETE or CANCEL has closed yet: launches still installing. */
+    private Set<String> plannedVersions() throws IOException {
+        Set<String> planned = new HashSet<>();
+        Path file = ROOT.resolve("journal.log");
+        if (!Files.exists(file)) return planned;
+        List<String> lines;
+        try {
+            CacheLock lock = lockFor(file);
+            try {
+                lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            } finally {
+                lock.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+        for (String line : lines) {
+            String[] f = line.split("\t");
+            if (f.length != 2) continue;
+            if (f[0].equals("PLAN")) planned.add(f[1]);
+            else if (f[0].equals("COMPLETE") || f[0].equals("CANCEL")) planned.remove(f[1]);
+        }
+        return planned;
+    }
+
+    private static long lastLaunch(Path versionDir, Path json) {
+        try {
+            Path marker = versionDir.resolve("last-launch");
+            if (Files.exists(marker)) {
+                return Long.parseLong(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim());
+            }
+            return Files.getLastModifiedTime(json).toMillis();
+        } catch (IOException | NumberFormatException e) {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private void runCacheGc(boolean dryRun) {
+        status(dryRun ? "Scanning cache..." : "Cleaning cache...");
+        try {
+            long start = System.nanoTime();
+            CachePlan plan = planCacheGc();
+            metric("cachegc.mark", System.nanoTime() - start);
+            String summary = plan.files.size() + " unreferenced files"
+                    + (plan.packed.isEmpty() ? "" : " and " + plan.packed.size() + " packed objects")
+                    + ", " + formatKb(plan.bytes / 1024) + " reclaimable"
+                    + (plan.evicted.isEmpty() ? "" : " (evicting " + String.join(", ", plan.evicted) + ")");
+            log("Cache GC: " + summary);
+            if (dryRun || plan.files.isEmpty() && plan.packed.isEmpty() && plan.packSlack == 0) {
+                status("Ready");
+                return;
+            }
+            if (frame != null) {
+                int[] answer = new int[1];
+                SwingUtilities.invokeAndWait(() -> answer[0] = JOptionPane.showConfirmDialog(frame,
+                        summary + ".\nDelete them now?", "Clean Cache", JOptionPane.OK_CANCEL_OPTION));
+                if (answer[0] != JOptionPane.OK_OPTION) {
+                    status("Ready");
+                    return;
+                }
+                // Mark again: launches started while the dialog was open are roots too
+                plan = planCacheGc();
+            }
+            long sweepStart = System.nanoTime();
+            AtomicLong freed = new AtomicLong();
+            AtomicInteger failed = new AtomicInteger();
+            Path inUse = ASSETS_DIR.resolve("packs").resolve("in-use");
+            Files.createDirectories(inUse);
+            // Held for the whole sweep, so a launch cannot mark loose copies while they are deleted
+            CacheLock sweep = lockFor(inUse);
+            try {
+                Set<String> keep = flag("assets.packStore", false) ? looseAssetsInUse() : Collections.emptySet();
+                long recent = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+                // Stripes are independent, so files are deleted in parallel; those sharing the held
+                // stripe go on this thread, since a worker waiting for it would never get it
+                int held = stripeOf(inUse);
+                List<Path> here = new ArrayList<>();
+                List<Path> parallel = new ArrayList<>();
+                for (Path p : plan.files) (stripeOf(p) == held ? here : parallel).add(p);
+                parallel.parallelStream().forEach(p -> sweepFile(p, keep, recent, freed, failed));
+                for (Path p : here) sweepFile(p, keep, recent, freed, failed);
+            } finally {
+                sweep.close();
+            }
+            if (!plan.packed.isEmpty() || plan.packSlack > 0) {
+                // Mapped buffers keep the old segments open on Windows until collected
+                if ("windows".equals(osName())) System.gc();
+                freed.addAndGet(packStore().compact(plan.packed));
+            }
+            for (String id : plan.evicted) pruneEmptyDirs(VERSIONS_DIR.resolve(id));
+            for (Path root : Arrays.asList(LIBRARIES_DIR, ASSETS_DIR.resolve("objects"), NATIVES_DIR, RUNTIMES_DIR)) {
+                pruneEmptyDirs(root);
+            }
+            metric("cachegc.sweep", System.nanoTime() - sweepStart);
+            log("Cache GC freed " + formatKb(freed.get() / 1024) + (failed.get() > 0 ? " (" + failed.get() + " files in use)" : ""));
+        } catch (Exception e) {
+            log("Cache GC failed: " + e.getMessage());
+        }
+        status("Ready");
+    }
+
+    /**
+     * Deletes one swept file under its cache lock, re-checked there: a download may have replaced
+     * it since the mark, and loose objects in keep were marked in use by a launch meanwhile.
+     */
+    private void sweepFile(Path p, Set<String> keep, long recentMillis, AtomicLong freed, AtomicInteger failed) {
+        if (p.startsWith(ASSETS_DIR.resolve("objects").toAbsolutePath()) && keep.contains(p.getFileName().toString())) return;
+        try {
+            CacheLock lock = lockFor(p);
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.lastModifiedTime().toMillis() > recentMillis) return;
+                Files.delete(p);
+                freed.addAndGet(attrs.size());
+            } finally {
+                lock.close();
+            }
+        } catch (NoSuchFileException e) {
+            // already gone
+        } catch (IOException e) {
+            failed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Deletes empty directories below root (and root itself if it ends up empty and is not a top-level store). */
+    private static void pruneEmptyDirs(Path root) throws IOException {
+        if (!Files.isDirectory(root)) return;
+        List<Path> dirs = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isDirectory).forEach(dirs::add);
+        }
+        boolean keepRoot = root.getParent() == null || root.getParent().equals(ROOT) || root.getParent().equals(ASSETS_DIR);
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            Path d = dirs.get(i);
+            if (d.equals(root) && keepRoot) continue;
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(d)) {
+                if (!ds.iterator().hasNext()) Files.delete(d);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // --- INTEGRITY SCAN ---
+
+    /**
+     * A file the version metadata promises, with where it came from and what it must hash to.
+     * Asset objects held by the pack store carry the pack and are checked there instead of at path.
+     */
+    private static final class ExpectedFile {
+        final Path path;
+        final String url;
+        final String sha1;
+        final long size;
+        final PackStore pack;
+
+        ExpectedFile(Path path, String url, String sha1, String size) {
+            this(path, url, sha1, size, null);
+        }
+
+        ExpectedFile(Path path, String url, String sha1, String size, PackStore pack) {
+            this.path = path;
+            this.url = url;
+            this.sha1 = sha1;
+            this.pack = pack;
+            long s = -1;
+            try {
+                if (size != null) s = Long.parseLong(size);
+            } catch (NumberFormatException ignored) {}
+            this.size = s;
+        }
+    }
+
+    /** Client jar, libraries and asset objects referenced by an installed version that carry a SHA-1. */
+    private List<ExpectedFile> expectedFiles(String versionId, String versionJson) throws IOException, InterruptedException {
+        List<ExpectedFile> out = new ArrayList<>();
+        String clientSha1 = getNested(versionJson, "downloads", "client", "sha1");
+        if (clientSha1 != null) {
+            out.add(new ExpectedFile(VERSIONS_DIR.resolve(versionId).resolve(versionId + ".jar"),
+                    findClientUrl(versionJson, versionId), clientSha1,
+                    getNested(versionJson, "downloads", "client", "size")));
+        }
+        forEachLibrary(versionJson, (libObj, os) -> {
+            String path = getNested(libObj, "downloads", "artifact", "path");
+            String sha1 = getNested(libObj, "downloads", "artifact", "sha1");
+            if (path != null && sha1 != null) {
+                out.add(new ExpectedFile(LIBRARIES_DIR.resolve(path.replace('/', File.separatorChar)),
+                        getNested(libObj, "downloads", "artifact", "url"), sha1,
+                        getNested(libObj, "downloads", "artifact", "size")));
+            }
+            String nativePath = nativeDownload(libObj, os, "path");
+            String nativeSha1 = nativeDownload(libObj, os, "sha1");
+            if (nativePath != null && nativeSha1 != null) {
+                out.add(new ExpectedFile(LIBRARIES_DIR.resolve(nativePath.replace('/', File.separatorChar)),
+                        nativeDownload(libObj, os, "url"), nativeSha1, nativeDownload(libObj, os, "size")));
+            }
+        });
+        String assetIndexJson = ensureAssetIndex(versionJson);
+        String objects = assetIndexJson == null ? null : jsonBlock(assetIndexJson, "objects");
+        if (objects != null) {
+            Path objectsDir = ASSETS_DIR.resolve("objects");
+            PackStore pack = flag("assets.packStore", false) ? packStore() : null;
+            Set<String> seen = new HashSet<>();
+            forEachEntry(objects, (name, value) -> {
+                String hash = getNested(value, "hash");
+                if (hash == null || hash.length() != 40 || !seen.add(hash)) return;
+                String prefix = hash.substring(0, 2);
+                Path loose = objectsDir.resolve(prefix).resolve(hash);
+                String url = RESOURCES_URL + prefix + "/" + hash;
+                boolean packed = pack != null && packHolds(pack, hash);
+                if (packed) out.add(new ExpectedFile(loose, url, hash, getNested(value, "size"), pack));
+                // Loose copies are checked too while they exist, e.g. for a running game
+                if (!packed || Files.exists(loose)) out.add(new ExpectedFile(loose, url, hash, getNested(value, "size")));
+            });
+        }
+        return out;
+    }
+
+    /**
+     * Hashes a slice of the expected files, splitting until slices are small enough that
+     * idle workers can steal the rest. Missing or wrongly sized files are flagged without hashing.
+     */
+    private static final class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int LEAF = 16;
+        final List<ExpectedFile> files;
+        final int from, to;
+        final HashCache cache;
+        final Queue<ExpectedFile> bad;
+        final AtomicLong bytes;
+        final AtomicInteger skipped;
+
+        VerifyTask(List<ExpectedFile> files, int from, int to, HashCache cache, Queue<ExpectedFile> bad,
+                   AtomicLong bytes, AtomicInteger skipped) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.cache = cache;
+            this.bad = bad;
+            this.bytes = bytes;
+            this.skipped = skipped;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new VerifyTask(files, from, mid, cache, bad, bytes, skipped),
+                        new VerifyTask(files, mid, to, cache, bad, bytes, skipped));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                if (getPool().isShutdown()) return;
+                ExpectedFile f = files.get(i);
+                if (f.pack != null) {
+                    try {
+                        ByteBuffer data = f.pack.read(f.sha1);
+                        bytes.addAndGet(data.remaining());
+                        if (f.size >= 0 && data.remaining() != f.size || !f.sha1.equalsIgnoreCase(sha1(data))) bad.add(f);
+                    } catch (IOException e) {
+                        bad.add(f);
+                    }
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(f.path, BasicFileAttributes.class);
+                    if (f.size >= 0 && attrs.size() != f.size) {
+                        bad.add(f);
+                        continue;
+                    }
+                    String actual = cache.lookup(f.path, attrs);
+                    if (actual != null) {
+                        skipped.incrementAndGet();
+                    } else {
+                        actual = sha1Mapped(f.path);
+                        cache.record(f.path, attrs, actual);
+                        bytes.addAndGet(attrs.size());
+                    }
+                    if (!f.sha1.equalsIgnoreCase(actual)) bad.add(f);
+                } catch (IOException e) {
+                    cache.forget(f.path);
+                    bad.add(f);
+                }
+            }
+        }
+    }
+
+    /** SHA-1 of a file read through memory-mapped windows rather than a copy loop. */
+    private static String sha1Mapped(Path file) throws IOException {
+        final long window = 64L << 20;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += window) {
+                md.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(window, size - pos)));
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void verifySelected(boolean repair) {
+        String versionId = (String) versionBox.getSelectedItem();
+        if (versionId == null) {
+            JOptionPane.showMessageDialog(frame, "Select a version first.");
+            return;
+        }
+        executor().submit(() -> verifyVersion(versionId, repair));
+    }
+
+    /** Hashes everything an installed version references; with repair, fixes what does not match. */
+    private int verifyVersion(String versionId, boolean repair) {
+        status((repair ? "Repairing " : "Verifying ") + versionId + "...");
+        try {
+            Path jsonPath = VERSIONS_DIR.resolve(versionId).resolve(versionId + ".json");
+            if (!Files.exists(jsonPath)) {
+                log("Verify: " + versionId + " is not installed.");
+                return -1;
+            }
+            String versionJson = new String(Files.readAllBytes(jsonPath), StandardCharsets.UTF_8);
+            log("Verifying " + versionId + "...");
+            return verifyFiles(expectedFiles(versionId, versionJson), repair);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log("Verify interrupted.");
+        } catch (Exception e) {
+            log("Verify failed: " + e.getMessage());
+        } finally {
+            status("Ready");
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the files against their SHA-1s (consulting the hash cache first) and, when repair
+     * is set, re-downloads only the ones that are missing or do not match. Returns the number
+     * of files still bad afterwards.
+     */
+    private int verifyFiles(List<ExpectedFile> files, boolean repair) throws InterruptedException {
+        Queue<ExpectedFile> bad = new ConcurrentLinkedQueue<>();
+        AtomicLong bytes = new AtomicLong();
+        AtomicInteger skipped = new AtomicInteger();
+        HashCache cache = hashCache();
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(new VerifyTask(files, 0, files.size(), cache, bad, bytes, skipped)).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // On interruption this also stops the leaves still queued or hashing
+            pool.shutdownNow();
+        }
+        cache.save();
+        long nanos = System.nanoTime() - start;
+        metric("verify.hash", nanos);
+        double mb = bytes.get() / (1024.0 * 1024.0);
+        log(String.format("Hashed %.1f MB in %.2f s (%.0f MB/s), %d unchanged files skipped: %d of %d missing or corrupt",
+                mb, nanos / 1e9, mb / Math.max(nanos / 1e9, 1e-6), skipped.get(), bad.size(), files.size()));
+        for (ExpectedFile f : bad) log("  Bad: " + ROOT.relativize(f.path) + (f.pack != null ? " (packed)" : ""));
+        if (!repair || bad.isEmpty()) return bad.size();
+
+        // Mapped buffers keep files open on Windows until collected, which blocks the delete below
+        if ("windows".equals(osName())) System.gc();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService fetchers = Executors.newFixedThreadPool(Math.min(8, bad.size()));
+        try {
+            List<Callable<Void>> jobs = new ArrayList<>();
+            for (ExpectedFile f : bad) {
+                jobs.add(() -> {
+                    try {
+                        if (f.pack != null) {
+                            // The fresh copy's index entry supersedes the bad one; compaction drops the old bytes
+                            f.pack.append(Map.of(f.sha1, fetchObject(f.sha1)), true);
+                        } else {
+                            Files.deleteIfExists(f.path);
+                            download(f.url, f.path, f.sha1);
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        log("  Repair failed for " + f.path.getFileName() + ": " + e.getMessage());
+                    }
+                    return null;
+                });
+            }
+            fetchers.invokeAll(jobs);
+        } finally {
+            fetchers.shutdown();
+        }
+        log("Repaired " + (bad.size() - failed.get()) + " of " + bad.size() + " files.");
+        return failed.get();
+    }
+
+    // --- HASH CACHE ---
+
+    /**
+     * Persisted fingerprints (size, mtime, file key) of files that were hashed, in ROOT/hashcache.tsv.
+     * A file whose fingerprint is unchanged is taken to still have the recorded SHA-1, so a warm
+     * verification is a metadata scan.
+     */
+    private static final class HashCache {
+        // Files modified this recently may change again within the same mtime tick, so they are not cached
+        private static final long RACY_MILLIS = 2000;
+
+        private final Path file;
+        private final Map<String, String[]> entries = new ConcurrentHashMap<>();
+        private volatile boolean dirty;
+
+        HashCache(Path file) {
+            this.file = file;
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts.length == 5) entries.put(parts[0], parts);
+                }
+            } catch (NoSuchFileException ignored) {
+                // first run
+            } catch (IOException e) {
+                entries.clear();
+            }
+        }
+
+        private static String key(Path path) {
+            return ROOT.relativize(path).toString().replace(File.separatorChar, '/');
+        }
+
+        private static String[] fingerprint(String key, BasicFileAttributes attrs, String sha1) {
+            Object fileKey = attrs.fileKey();
+            return new String[]{key, Long.toString(attrs.size()), Long.toString(attrs.lastModifiedTime().toMillis()),
+                    fileKey == null ? "-" : fileKey.toString().replace('\t', ' '), sha1};
+        }
+
+        /** The recorded SHA-1 if the file's size, mtime and identity are what they were when hashed. */
+        String lookup(Path path, BasicFileAttributes attrs) {
+            String[] e = entries.get(key(path));
+            if (e == null) return null;
+            String[] now = fingerprint(e[0], attrs, e[4]);
+            return e[1].equals(now[1]) && e[2].equals(now[2]) && e[3].equals(now[3]) ? e[4] : null;
+        }
+
+        void record(Path path, BasicFileAttributes attrs, String sha1) {
+            if (System.currentTimeMillis() - attrs.lastModifiedTime().toMillis() < RACY_MILLIS) return;
+            entries.put(key(path), fingerprint(key(path), attrs, sha1));
+            dirty = true;
+        }
+
+        void forget(Path path) {
+            if (entries.remove(key(path)) != null) dirty = true;
+        }
+
+        synchronized void save() {
+            if (!dirty) return;
+            dirty = false;
+            StringBuilder sb = new StringBuilder();
+            for (String[] e : entries.values()) sb.append(String.join("\t", e)).append('\n');
+            try {
+                writeAtomic(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                dirty = true;
+            }
+        }
+    }
+
+    private HashCache hashCache() {
+        HashCache c = hashCache;
+        if (c == null) {
+            synchronized (this) {
+                c = hashCache;
+                if (c == null) hashCache = c = new HashCache(ROOT.resolve("hashcache.tsv"));
+            }
+        }
+        return c;
+    }
+
+    // --- GAME DIRECTORY INSTANCES ---
+
+    /**
+     * Named instances are just separate game directories under instances/. Libraries, assets,
+     * client jars, natives and runtimes are referenced by absolute path from the shared store,
+     * so a new instance costs one empty directory and no downloads.
+     */
+    private static Path gameDirFor(String instanceName) throws IOException {
+        if (DEFAULT_INSTANCE.equals(instanceName)) return ROOT;
+        // Names come from the UI, the instances/ listing and --instance; none may leave instances/
+        if (!validInstanceName(instanceName)) throw new IOException("Invalid instance name: " + instanceName);
+        Path dir = INSTANCES_DIR.resolve(instanceName);
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    /** Letters, digits, spaces, '.', '_' and '-'; not hidden and not the default instance's name. */
+    private static boolean validInstanceName(String name) {
+        return name.matches("[A-Za-z0-9 _.-]{1,40}") && !name.equalsIgnoreCase(DEFAULT_INSTANCE) && !name.startsWith(".");
+    }
+
+    private static List<String> listGameInstances() {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(INSTANCES_DIR, Files::isDirectory)) {
+            for (Path dir : ds) {
+                String name = dir.getFileName().toString();
+                if (validInstanceName(name)) names.add(name);
+            }
+        } catch (IOException ignored) {
+            // no instances yet
+        }
+        Collections.sort(names);
+        names.add(0, DEFAULT_INSTANCE);
+        return names;
+    }
+
+    private void createGameInstance() {
+        String name = JOptionPane.showInputDialog(frame, "Instance name:", "New Instance", JOptionPane.PLAIN_MESSAGE);
+        if (name == null) return;
+        name = name.trim();
+        if (!validInstanceName(name)) {
+            JOptionPane.showMessageDialog(frame, "Use letters, digits, spaces, '.', '_' or '-'.", "Invalid Name", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        try {
+            gameDirFor(name);
+        } catch (IOException e) {
+            log("Could not create instance: " + e.getMessage());
+            return;
+        }
+        instanceBox.setModel(new DefaultComboBoxModel<>(listGameInstances().toArray(new String[0])));
+        instanceBox.setSelectedItem(name);
+        log("Created instance '" + name + "' at " + INSTANCES_DIR.resolve(name));
+    }
+
+    // --- LIVE PROCESS MONITORING (/proc) ---
+
+    /** One reading of a game process. */
+    private static final class ProcSample {
+        final long atMillis;
+        final double cpuPercent;
+        final long rssKb;
+        final int threads;
+        final double readKbps, writeKbps;
+
+        ProcSample(long atMillis, double cpuPercent, long rssKb, int threads, double readKbps, double writeKbps) {
+            this.atMillis = atMillis;
+            this.cpuPercent = cpuPercent;
+            this.rssKb = rssKb;
+            this.threads = threads;
+            this.readKbps = readKbps;
+            this.writeKbps = writeKbps;
+        }
+    }
+
+    /**
+     * Reads /proc/<pid>/stat, status and io and keeps the last N samples in a ring.
+     * CPU% is relative to one core, as in top. The first read only sets the baseline,
+     * so every recorded sample has a real CPU and IO rate.
+     */
+    private static final class ProcSampler {
+        private static final double CLOCK_TICKS = 100.0;
+
+        private final Path proc;
+        private final ProcSample[] ring;
+        private int next, count;
+        private long lastTicks = -1, lastRead, lastWrite, lastNanos;
+
+        // Whole-session aggregates, kept outside the ring so the summary covers everything;
+        // guarded by this, read through summary()
+        private long samples, peakRssKb, firstRssKb, totalReadKb, totalWriteKb;
+        private int peakThreads;
+        private double cpuSum, peakCpu;
+
+        ProcSampler(long pid, int capacity) {
+            this.proc = Paths.get("/proc", String.valueOf(pid));
+            this.ring = new ProcSample[capacity];
+        }
+
+        static boolean supported(long pid) {
+            return Files.isReadable(Paths.get("/proc", String.valueOf(pid), "stat"));
+        }
+
+        /** Takes a reading; returns null for the first one, which only sets the baseline. */
+        synchronized ProcSample sample() throws IOException {
+            long now = System.nanoTime();
+            String stat = new String(Files.readAllBytes(proc.resolve("stat")), StandardCharsets.US_ASCII);
+            // Fields after "(comm)": state is field 3, utime 14, stime 15
+            String[] f = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(f[11]) + Long.parseLong(f[12]);
+
+            long rssKb = 0;
+            int threads = 0;
+            for (String line : Files.readAllLines(proc.resolve("status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) rssKb = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                else if (line.startsWith("Threads:")) threads = Integer.parseInt(line.replaceAll("[^0-9]", ""));
+            }
+
+            long read = lastRead, write = lastWrite;
+            try {
+                for (String line : Files.readAllLines(proc.resolve("io"), StandardCharsets.US_ASCII)) {
+                    if (line.startsWith("read_bytes:")) read = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    else if (line.startsWith("write_bytes:")) write = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            } catch (IOException ignored) {
+                // io needs ptrace access on some kernels; CPU and memory still work
+            }
+
+            boolean baseline = lastTicks < 0;
+            double secs = (now - lastNanos) / 1e9;
+            long readDelta = read - lastRead, writeDelta = write - lastWrite, tickDelta = ticks - lastTicks;
+            lastTicks = ticks;
+            lastRead = read;
+            lastWrite = write;
+            lastNanos = now;
+            if (baseline) return null;
+
+            double cpu = tickDelta / CLOCK_TICKS / secs * 100.0;
+            double readKbps = readDelta / 1024.0 / secs;
+            double writeKbps = writeDelta / 1024.0 / secs;
+            totalReadKb += readDelta / 1024;
+            totalWriteKb += writeDelta / 1024;
+
+            ProcSample s = new ProcSample(System.currentTimeMillis(), cpu, rssKb, threads, readKbps, writeKbps);
+            ring[next] = s;
+            next = (next + 1) % ring.length;
+            if (count < ring.length) count++;
+
+            if (samples++ == 0) firstRssKb = rssKb;
+            peakRssKb = Math.max(peakRssKb, rssKb);
+            peakThreads = Math.max(peakThreads, threads);
+            cpuSum += cpu;
+            peakCpu = Math.max(peakCpu, cpu);
+            return s;
+        }
+
+        synchronized ProcSample latest() {
+            return count == 0 ? null : ring[(next - 1 + ring.length) % ring.length];
+        }
+
+        /** Consistent view of the session aggregates, or null before the first recorded sample. */
+        synchronized String summary() {
+            if (samples == 0) return null;
+            return String.format("cpu avg=%.0f%% peak=%.0f%% rss start=%s peak=%s end=%s threads peak=%d io read=%s write=%s",
+                    cpuSum / samples, peakCpu, formatKb(firstRssKb), formatKb(peakRssKb), formatKb(latest().rssKb),
+                    peakThreads, formatKb(totalReadKb), formatKb(totalWriteKb));
+        }
+    }
+
+    private void startSampling(GameInstance inst) {
+        long pid = inst.process.pid();
+        if (!ProcSampler.supported(pid)) return;
+        long interval = Math.max(100, numberSetting("monitor.intervalMs", 1000));
+        int capacity = (int) Math.min(100_000, Math.max(10, numberSetting("monitor.samples", 600)));
+        inst.sampler = new ProcSampler(pid, capacity);
+        inst.sampling = monitor.scheduleAtFixedRate(() -> {
+            try {
+                inst.sampler.sample();
+                showMonitor();
+            } catch (IOException | RuntimeException e) {
+                // process is gone; the exit hook cancels this task
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void showMonitor() {
+        StringBuilder sb = new StringBuilder("<html><center>");
+        for (GameInstance inst : new TreeMap<>(instances).values()) {
+            ProcSample s = inst.sampler == null ? null : inst.sampler.latest();
+            if (s == null) continue;
+            sb.append(String.format("#%d %s | CPU %.0f%% | RSS %s | %d thr | IO r %.1f w %.1f MB/s",
+                    inst.id, inst.versionId, s.cpuPercent, formatKb(s.rssKb), s.threads,
+                    s.readKbps / 1024, s.writeKbps / 1024));
+            GcAnalyzer gc = inst.gc;
+            if (gc != null && gc.pauseCount() > 0) {
+                sb.append(String.format(" | GC p50 %.1f p99 %.1f ms", gc.percentile(50), gc.percentile(99)));
+            }
+            sb.append("<br>");
+        }
+        String text = sb.append("</center></html>").toString();
+        if (monitorLabel != null) SwingUtilities.invokeLater(() -> monitorLabel.setText(text));
+    }
+
+    /** Logs a resource summary for an exited instance and appends it to logs/sessions.log. */
+    private void writeSessionSummary(GameInstance inst, int exitCode) {
+        String stats = inst.sampler.summary();
+        if (stats == null) return;
+        long seconds = (System.currentTimeMillis() - inst.startedAt) / 1000;
+        String summary = String.format("%s instance #%d %s (%s) exit=%d duration=%ds %s",
+                Instant.now(), inst.id, inst.versionId, inst.account, exitCode, seconds, stats);
+        log("Session summary: " + summary);
+        appendSessionLog(summary);
+    }
+
+    private void appendSessionLog(String line) {
+        try {
+            Files.createDirectories(LOGS_DIR);
+            Files.write(LOGS_DIR.resolve("sessions.log"), (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log("Could not write session log: " + e.getMessage());
+        }
+    }
+
+    // --- GC LOG ANALYSIS ---
+
+    // Generational ZGC (java 21+) prefixes its pauses with the generation: "GC(3) Y: Pause Mark Start"
+    private static final Pattern GC_PAUSE_PATTERN = Pattern.compile(
+        "^\\[([\\d.]+)s\\].*GC\\((\\d+)\\) (?:[YyOo]: )?(Pause.*?)(?: (\\d+)M->(\\d+)M\\((\\d+)M\\))? ([\\d.]+)ms$"
+    );
+
+    /** Incremental parser for unified GC logs (-Xlog:gc*, uptime decorator). */
+    private static final class GcAnalyzer {
+        private final List<Double> pausesMs = new ArrayList<>();
+        private final List<double[]> heapAfter = new ArrayList<>(); // {uptime s, MB}
+        private double totalPauseMs, allocatedMb, firstUptime = -1, lastUptime, lastAfterMb = -1;
+
+        synchronized void accept(String line) {
+            Matcher m = GC_PAUSE_PATTERN.matcher(line.trim());
+            if (!m.find()) return;
+            double uptime = Double.parseDouble(m.group(1));
+            double pause = Double.parseDouble(m.group(7));
+            pausesMs.add(pause);
+            totalPauseMs += pause;
+            if (firstUptime < 0) firstUptime = uptime;
+            lastUptime = uptime;
+            if (m.group(4) != null) {
+                double before = Double.parseDouble(m.group(4));
+                double after = Double.parseDouble(m.group(5));
+                // Everything above the previous post-GC heap was allocated since that GC
+                if (lastAfterMb >= 0) allocatedMb += Math.max(0, before - lastAfterMb);
+                lastAfterMb = after;
+                heapAfter.add(new double[]{uptime, after});
+            }
+        }
+
+        synchronized int pauseCount() {
+            return pausesMs.size();
+        }
+
+        synchronized double percentile(double p) {
+            if (pausesMs.isEmpty()) return 0;
+            List<Double> sorted = new ArrayList<>(pausesMs);
+            Collections.sort(sorted);
+            int idx = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, idx)));
+        }
+
+        synchronized String report() {
+            double span = Math.max(0.001, lastUptime - firstUptime);
+            double first = heapAfter.isEmpty() ? 0 : heapAfter.get(0)[1];
+            double last = heapAfter.isEmpty() ? 0 : heapAfter.get(heapAfter.size() - 1)[1];
+            double max = 0;
+            for (double[] h : heapAfter) max = Math.max(max, h[1]);
+            return String.format("pauses=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms gc-time=%.2f%% "
+                            + "alloc=%.1fMB/s heap-after-gc first=%dM last=%dM max=%dM trend=%+.1fMB/min",
+                    pausesMs.size(), percentile(50), percentile(90), percentile(99), percentile(100),
+                    totalPauseMs / 10.0 / span, allocatedMb / span, (long) first, (long) last, (long) max,
+                    heapSlopePerMinute());
+        }
+
+        /** Least-squares slope of heap-after-GC over time; a steady rise suggests a leak. */
+        private double heapSlopePerMinute() {
+            int n = heapAfter.size();
+            if (n < 2) return 0;
+            double sx = 0, sy = 0, sxx = 0, sxy = 0;
+            for (double[] h : heapAfter) {
+                sx += h[0];
+                sy += h[1];
+                sxx += h[0] * h[0];
+                sxy += h[0] * h[1];
+            }
+            double denom = n * sxx - sx * sx;
+            return denom == 0 ? 0 : (n * sxy - sx * sy) / denom * 60.0;
+        }
+    }
+
+    /**
+     * Adds unified GC logging to the command when game.gcLog is on (Java 9+). The file path is
+     * relative to the game's working directory to keep drive-letter colons out of -Xlog.
+     */
+    private Path addGcLogArgs(List<String> cmd, String versionId, Path workDir, int javaMajor) {
+        if (!flag("game.gcLog", false)) return null;
+        if (javaMajor < 9) {
+            log("GC logging skipped: unified logging needs Java 9+.");
+            return null;
+        }
+        String name = "gc-" + versionId.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + System.currentTimeMillis() + ".log";
+        Path gcLog = workDir.resolve("logs").resolve(name);
+        try {
+            Files.createDirectories(gcLog.getParent());
+        } catch (IOException e) {
+            log("GC logging disabled for this launch: " + e.getMessage());
+            return null;
+        }
+        cmd.add("-Xlog:gc*:file=logs/" + name + ":uptime,level,tags");
+        return gcLog;
+    }
+
+    /** Follows the GC log while the game runs, feeding the analyzer; reports when the game exits. */
+    private void startGcTail(GameInstance inst, Path gcLog) {
+        GcAnalyzer gc = new GcAnalyzer();
+        inst.gc = gc;
+        startPumpThread("gc-log-" + inst.id, () -> {
+            StringBuilder partial = new StringBuilder();
+            long pos = 0;
+            try {
+                while (true) {
+                    boolean alive = inst.process.isAlive();
+                    if (Files.exists(gcLog)) {
+                        try (RandomAccessFile raf = new RandomAccessFile(gcLog.toFile(), "r")) {
+                            long len = raf.length();
+                            if (len > pos) {
+                                byte[] buf = new byte[(int) Math.min(len - pos, 1 << 20)];
+                                raf.seek(pos);
+                                raf.readFully(buf);
+                                pos += buf.length;
+                                partial.append(new String(buf, StandardCharsets.UTF_8));
+                                int nl;
+                                while ((nl = partial.indexOf("\n")) >= 0) {
+                                    gc.accept(partial.substring(0, nl));
+                                    partial.delete(0, nl + 1);
+                                }
+                                continue;
+                            }
+                        }
+                    }
+                    if (!alive) break;
+                    Thread.sleep(500);
+                }
+            } catch (IOException e) {
+                log("GC log tail stopped: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (partial.length() > 0) gc.accept(partial.toString());
+            String report = "instance #" + inst.id + " " + inst.versionId + " GC " + gc.report();
+            log("GC summary: " + report);
+            appendSessionLog(Instant.now() + " " + report);
+        });
+    }
+
+    private static String formatKb(long kb) {
+        if (kb >= 1024 * 1024) return String.format("%.1f GB", kb / (1024.0 * 1024));
+        if (kb >= 1024) return String.format("%.0f MB", kb / 1024.0);
+        return kb + " KB";
+    }
+
+    private void fillInstancesMenu(JMenu menu) {
+        menu.removeAll();
+        JMenuItem create = new JMenuItem("New Instance...");
+        create.setForeground(Color.WHITE);
+        create.setBackground(Color.BLACK);
+        create.setOpaque(true);
+        create.addActionListener(e -> createGameInstance());
+        menu.add(create);
+        menu.addSeparator();
+        if (instances.isEmpty()) {
+            JMenuItem none = new JMenuItem("No running instances");
+            none.setEnabled(false);
+            none.setBackground(Color.BLACK);
+            none.setOpaque(true);
+            menu.add(none);
+            return;
+        }
+        for (GameInstance inst : new TreeMap<>(instances).values()) {
+            JMenuItem item = new JMenuItem(inst.label());
+            item.setForeground(Color.WHITE);
+            item.setBackground(Color.BLACK);
+            item.setOpaque(true);
+            item.addActionListener(e -> showInstance(inst));
+            menu.add(item);
+        }
+    }
+
+    private void showInstance(GameInstance inst) {
+        JTextArea text = new JTextArea(inst.tail(), 20, 70);
+        text.setEditable(false);
+        text.setBackground(new Color(10, 10, 10));
+        text.setForeground(new Color(0, 255, 153));
+        text.setFont(new Font("Consolas", Font.PLAIN, 12));
+        String[] choices = {"Stop Instance", "Close"};
+        int choice = JOptionPane.showOptionDialog(frame, new JScrollPane(text), inst.label(),
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, choices, choices[1]);
+        if (choice == 0 && inst.process.isAlive()) {
+            log("Stopping instance #" + inst.id + "...");
+            inst.process.destroy();
+        }
+    }
+
+    // --- SPECULATIVE PREFETCH ---
+
+    /** Debounce selection changes so scrolling through the list does not start a download per entry. */
+    private synchronized void schedulePrefetch(String versionId) {
+        if (versionId == null || !flag("prefetch.enabled", true)) return;
+        if (pendingPrefetch != null) pendingPrefetch.cancel(true);
+        pendingPrefetch = prefetcher.schedule(() -> inBackground(() -> prefetch(versionId)), 750, TimeUnit.MILLISECONDS);
+    }
+
+    /** Fetch the version JSON, client jar and libraries (and optionally the asset index) ahead of Launch. */
+    private void prefetch(String versionId) {
+        try {
+            long start = System.nanoTime();
+            String versionJson = ensureVersionJson(versionId);
+            if (Thread.currentThread().isInterrupted()) return;
+            ensureClientJar(versionId, versionJson);
+            if (Thread.currentThread().isInterrupted()) return;
+            downloadLibraries(versionJson, false);
+            if (Thread.currentThread().isInterrupted()) return;
+            ensureJavaRuntime(versionJson);
+            if (flag("prefetch.assetIndex", true) && !Thread.currentThread().isInterrupted()) {
+                ensureAssetIndex(versionJson);
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                metric("prefetch." + versionId, System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (!Thread.currentThread().isInterrupted()) log("Prefetch of " + versionId + " skipped: " + e.getMessage());
+        }
+    }
+
+    // --- MANAGED JAVA RUNTIMES ---
+
+    /** The java binary a version is launched with, and its major version. */
+    private static final class JavaRuntime {
+        final String executable;
+        final int major;
+
+        JavaRuntime(String executable, int major) {
+            this.executable = executable;
+            this.major = major;
+        }
+    }
+
+    /**
+     * Returns the runtime named by the version's javaVersion.component, installing it from
+     * Mojang's java-runtime manifest (runtime.manifestUrl) if needed. Falls back to the
+     * java on PATH when java.managed=false, java.path is set, or provisioning fails.
+     */
+    private JavaRuntime ensureJavaRuntime(String versionJson) throws InterruptedException {
+        String explicit = setting("java.path", null);
+        if (explicit != null) return new JavaRuntime(explicit, probeJavaMajor(explicit));
+        if (!flag("java.managed", true)) return new JavaRuntime("java", probeJavaMajor("java"));
+
+        String component = getNested(versionJson, "javaVersion", "component");
+        String majorStr = getNested(versionJson, "javaVersion", "majorVersion");
+        if (component == null) component = "jre-legacy";
+        int major = 8;
+        try {
+            if (majorStr != null) major = Integer.parseInt(majorStr);
+        } catch (NumberFormatException ignored) {}
+
+        try {
+            Path bin;
+            runtimeLock.lockInterruptibly();
+            try {
+                bin = installRuntime(component);
+            } finally {
+                runtimeLock.unlock();
+            }
+            return new JavaRuntime(bin.toAbsolutePath().toString(), major);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            log("Java runtime " + component + " unavailable (" + e.getMessage() + "), using java from PATH.");
+            return new JavaRuntime("java", probeJavaMajor("java"));
+        }
+    }
+
+    /**
+     * Major version of a java executable the launcher did not install: from the release file of
+     * its installation when there is one, otherwise by asking it (-XshowSettings:properties).
+     * Falls back to the launcher's own version, with a log line, if neither works.
+     */
+    private int probeJavaMajor(String executable) throws InterruptedException {
+        Integer known = javaMajors.get(executable);
+        if (known != null) return known;
+        int major = -1;
+        Path bin = Paths.get(executable);
+        if (bin.isAbsolute() && bin.getParent() != null) {
+            Path release = bin.getParent().resolveSibling("release");
+            try (Reader in = Files.newBufferedReader(release, StandardCharsets.UTF_8)) {
+                Properties p = new Properties();
+                p.load(in);
+                major = majorOf(p.getProperty("JAVA_VERSION", "").replace("\"", ""));
+            } catch (IOException | IllegalArgumentException noReleaseFile) {
+                // asked below
+            }
+        }
+        if (major < 0) {
+            try {
+                Process p = new ProcessBuilder(executable, "-XshowSettings:properties", "-version")
+                        .redirectErrorStream(true).start();
+                String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                p.waitFor();
+                Matcher m = Pattern.compile("java\\.specification\\.version = (\\S+)").matcher(out);
+                if (m.find()) major = majorOf(m.group(1));
+            } catch (IOException e) {
+                // not runnable; reported below
+            }
+        }
+        if (major < 0) {
+            log("Could not tell the Java version of " + executable + ", assuming " + javaMajor() + ".");
+            return javaMajor();
+        }
+        javaMajors.put(executable, major);
+        return major;
+    }
+
+    /** Downloads every file of a runtime component in parallel, verifying each SHA-1. */
+    private Path installRuntime(String component) throws Exception {
+        Path home = RUNTIMES_DIR.resolve(component);
+        Path marker = home.resolve(".manifest-sha1");
+
+        String all = httpGetOrCache(setting("runtime.manifestUrl", RUNTIME_MANIFEST_URL), RUNTIMES_DIR.resolve("all.json"));
+        String platform = jsonBlock(all, runtimePlatform());
+        if (platform == null) throw new IOException("no runtimes for " + runtimePlatform());
+        String entries = jsonBlock(platform, component);
+        if (entries == null || !entries.contains("\"manifest\"")) {
+            throw new IOException(component + " not offered for " + runtimePlatform());
+        }
+        String manifestUrl = getNested(entries, "manifest", "url");
+        String manifestSha1 = getNested(entries, "manifest", "sha1");
+
+        Path bin = runtimeExecutable(home);
+        if (Files.exists(bin) && Files.exists(marker)
+                && new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim().equals(manifestSha1)) {
+            return bin;
+        }
+
+        log("Installing Java runtime " + component + "...");
+        long start = System.nanoTime();
+        String files = jsonBlock(httpGet(manifestUrl), "files");
+        if (files == null) throw new IOException("runtime manifest has no files");
+
+        List<String[]> toFetch = new ArrayList<>();
+        List<String[]> links = new ArrayList<>();
+        forEachEntry(files, (name, value) -> {
+            String type = getNested(value, "type");
+            Path target = home.resolve(name.replace('/', File.separatorChar));
+            try {
+                if ("directory".equals(type)) {
+                    Files.createDirectories(target);
+                } else if ("link".equals(type)) {
+                    links.add(new String[]{name, getNested(value, "target")});
+                } else if ("file".equals(type)) {
+                    toFetch.add(new String[]{name, getNested(value, "downloads", "raw", "url"),
+                            getNested(value, "downloads", "raw", "sha1"), getNested(value, "executable")});
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(8, Math.max(1, toFetch.size())));
+        try {
+            List<Future<?>> jobs = new ArrayList<>();
+            for (String[] f : toFetch) {
+                jobs.add(pool.submit(() -> {
+                    Path dest = home.resolve(f[0].replace('/', File.separatorChar));
+                    if (!Files.exists(dest) || !f[2].equals(sha1(dest))) {
+                        Files.deleteIfExists(dest);
+                        download(f[1], dest, f[2]);
+                    }
+                    if ("true".equals(f[3])) dest.toFile().setExecutable(true);
+                    return null;
+                }));
+            }
+            for (Future<?> job : jobs) {
+                try {
+                    job.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("runtime file failed: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!osName().equals("windows")) {
+            for (String[] link : links) {
+                Path linkPath = home.resolve(link[0]);
+                if (Files.exists(linkPath, LinkOption.NOFOLLOW_LINKS)) continue;
+                Files.createDirectories(linkPath.getParent());
+                Files.createSymbolicLink(linkPath, Paths.get(link[1]));
+            }
+        }
+        writeAtomic(marker, manifestSha1.getBytes(StandardCharsets.UTF_8));
+        metric("runtime.install." + component, System.nanoTime() - start);
+        log("Java runtime " + component + " installed (" + toFetch.size() + " files).");
+        return runtimeExecutable(home);
+    }
+
+    private static Path runtimeExecutable(Path home) {
+        if (osName().equals("windows")) return home.resolve("bin").resolve("javaw.exe");
+        Path bundle = home.resolve("jre.bundle").resolve("Contents").resolve("Home").resolve("bin").resolve("java");
+        if (Files.exists(bundle)) return bundle;
+        return home.resolve("bin").resolve("java");
+    }
+
+    /** Platform key used by the java-runtime manifest. */
+    private static String runtimePlatform() {
+        String arch = System.getProperty("os.arch").toLowerCase();
+        boolean arm = arch.contains("aarch64") || arch.contains("arm64");
+        boolean x86 = arch.equals("x86") || arch.equals("i386") || arch.equals("i686");
+        switch (osName()) {
+            case "windows": return arm ? "windows-arm64" : x86 ? "windows-x86" : "windows-x64";
+            case "osx": return arm ? "mac-os-arm64" : "mac-os";
+            default: return x86 ? "linux-i386" : "linux";
+        }
+    }
+
+    /** GET a document, refreshing the on-disk copy; the copy is used when offline. */
+    private String httpGetOrCache(String url, Path cache) throws IOException, InterruptedException {
+        try {
+            String body = httpGet(url);
+            writeAtomic(cache, body.getBytes(StandardCharsets.UTF_8));
+            return body;
+        } catch (IOException e) {
+            if (!Files.exists(cache)) throw e;
+            return new String(Files.readAllBytes(cache), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha1(ByteBuffer data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(data);
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** SHA-1 of a whole file read through an open channel, e.g. one that holds the file's lock. */
+    private static String sha1(FileChannel ch) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = ByteBuffer.allocate(65536);
+            long pos = 0;
+            int n;
+            while ((n = ch.read(buf, pos)) > 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+                pos += n;
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha1(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // --- PAGE-CACHE WARMING ---
+
+    /**
+     * Reads every file on a small pool so the game's first class and native loads hit the
+     * page cache. Runs alongside the remaining launch preparation; finish() waits briefly
+     * and reports how much of the read time was hidden behind that preparation, and close()
+     * stops the pool on every path out of the launch.
+     */
+    private final class CacheWarmer {
+        // The game reads these files itself; a pass that is not nearly done only delays the start
+        private static final long FINISH_WAIT_MS = 500;
+
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger warmed = new AtomicInteger();
+        private final AtomicLong endNanos = new AtomicLong();
+        private final ExecutorService pool;
+        private final CompletableFuture<Void> done;
+        private final int fileCount;
+
+        CacheWarmer(List<Path> files) {
+            fileCount = files.size();
+            pool = Executors.newFixedThreadPool(Math.max(1, Math.min(4, files.size())), r -> {
+                Thread t = new Thread(r, "cache-warmer");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+            List<CompletableFuture<Void>> reads = new ArrayList<>();
+            for (Path file : files) {
+                reads.add(CompletableFuture.runAsync(() -> {
+                    long n = warm(file);
+                    if (n < 0) return;
+                    bytes.addAndGet(n);
+                    warmed.incrementAndGet();
+                }, pool));
+            }
+            done = CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((v, e) -> endNanos.set(System.nanoTime()));
+        }
+
+        // Plain reads rather than mappings: a mapping outlives the read until it is collected,
+        // which on Windows keeps the jar locked against updates and repairs. -1 if the read failed
+        // or was stopped by close().
+        private long warm(Path file) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                long total = 0;
+                int n;
+                while ((n = ch.read(buf)) > 0) {
+                    total += n;
+                    buf.clear();
+                }
+                return total;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        void finish() throws InterruptedException {
+            long readyNanos = System.nanoTime();
+            try {
+                done.get(FINISH_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log(String.format("Cache warming not done after waiting %d ms (%d of %d files); launching without it.",
+                        FINISH_WAIT_MS, warmed.get(), fileCount));
+            } catch (ExecutionException e) {
+                log("Cache warming incomplete: " + e.getMessage());
+            } finally {
+                close();
+            }
+            long end = endNanos.get() == 0 ? System.nanoTime() : endNanos.get();
+            long total = end - startNanos;
+            long hidden = Math.min(end, readyNanos) - startNanos;
+            metric("warm.read", total);
+            metric("warm.hidden", hidden);
+            log(String.format("Warmed %d files (%s) in %d ms; %d ms overlapped with launch preparation.",
+                    warmed.get(), formatKb(bytes.get() / 1024), TimeUnit.NANOSECONDS.toMillis(total),
+                    TimeUnit.NANOSECONDS.toMillis(hidden)));
+        }
+
+        /** Stops any reads still running; safe to call more than once. */
+        void close() {
+            pool.shutdownNow();
+        }
+    }
+
+    // --- CLASS DATA SHARING (game process) ---
+
+    /**
+     * Adds -XX:SharedArchiveFile when a valid archive exists for this version, or
+     * -XX:ArchiveClassesAtExit to make this launch the training run. Returns the
+     * training output path, or null when no archive is being produced.
+     */
+    private Path addCdsArgs(List<String> cmd, String versionId, String javaBin, String classpath, int javaMajor) {
+        if (!flag("game.cds", false)) return null;
+        if (javaMajor < 13) {
+            log("AppCDS skipped: dynamic archives need Java 13+.");
+            return null;
+        }
+        Path archive = CDS_DIR.resolve(versionId + ".jsa");
+        Path fpFile = CDS_DIR.resolve(versionId + ".fp");
+        try {
+            Files.createDirectories(CDS_DIR);
+            String fp = cdsFingerprint(javaBin, classpath);
+            if (Files.exists(archive) && Files.exists(fpFile)
+                    && fp.equals(new String(Files.readAllBytes(fpFile), StandardCharsets.UTF_8))) {
+                log("Using CDS archive " + archive.getFileName());
+                cmd.add("-XX:SharedArchiveFile=" + archive.toAbsolutePath());
+                cmd.add("-Xshare:auto");
+                return null;
+            }
+            if (Files.exists(archive)) log("CDS archive for " + versionId + " is stale, retraining.");
+            Files.deleteIfExists(archive);
+            Files.deleteIfExists(fpFile);
+            Path training = CDS_DIR.resolve(versionId + ".jsa.training");
+            Files.deleteIfExists(training);
+            log("CDS training run: class archive will be written when the game exits.");
+            cmd.add("-XX:ArchiveClassesAtExit=" + training.toAbsolutePath());
+            return training;
+        } catch (IOException e) {
+            log("AppCDS disabled for this launch: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void finishCdsTraining(String versionId, Path training, String javaBin, String classpath) {
+        try {
+            if (!Files.exists(training) || Files.size(training) == 0) {
+                log("CDS training produced no archive (game did not exit cleanly?).");
+                Files.deleteIfExists(training);
+                return;
+            }
+            Files.move(training, CDS_DIR.resolve(versionId + ".jsa"), StandardCopyOption.REPLACE_EXISTING);
+            writeAtomic(CDS_DIR.resolve(versionId + ".fp"), cdsFingerprint(javaBin, classpath).getBytes(StandardCharsets.UTF_8));
+            log("CDS archive created for " + versionId + "; next launch will use it.");
+        } catch (IOException e) {
+            log("Could not store CDS archive: " + e.getMessage());
+        }
+    }
+
+    /** SHA-1 over the java binary and each classpath entry's path, size and mtime. */
+    private String cdsFingerprint(String javaBin, String classpath) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            Path bin = Paths.get(javaBin);
+            String binStamp = Files.exists(bin) ? String.valueOf(Files.getLastModifiedTime(bin).toMillis())
+                    : System.getProperty("java.version");
+            md.update((javaBin + "|" + binStamp + "\n").getBytes(StandardCharsets.UTF_8));
+            for (String entry : classpath.split(Pattern.quote(File.pathSeparator))) {
+                Path p = Paths.get(entry);
+                md.update((entry + "|" + Files.size(p) + "|" + Files.getLastModifiedTime(p).toMillis() + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // --- JVM TUNING PROFILES ---
+
+    /** Heap and GC flags chosen for one launch, plus a human-readable reason. */
+    private static final class JvmProfile {
+        final String name;
+        final String reason;
+        final List<String> args = new ArrayList<>();
+
+        JvmProfile(String name, String reason) {
+            this.name = name;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Picks heap size, collector and thread counts from total RAM and CPU count.
+     * Per-version settings (jvm.profile.<id>, jvm.heap.<id>, jvm.gc.<id>, jvm.args.<id>)
+     * override the global ones (jvm.profile, jvm.heap, jvm.gc, jvm.args), which override detection.
+     * Settings that are malformed, or a collector the game's runtime lacks, are logged and ignored.
+     */
+    private JvmProfile chooseJvmProfile(String versionId, JavaRuntime runtime) {
+        long totalMb = totalMemoryBytes() / (1024 * 1024);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int javaMajor = runtime.major;
+
+        String detected;
+        if (totalMb < 4096) detected = "low-memory";
+        else if (totalMb < 8192) detected = "balanced";
+        else if (totalMb < 16384 || cpus < 8) detected = "performance";
+        else detected = "high-end";
+        String name = setting("jvm.profile." + versionId, setting("jvm.profile", detected));
+        if (!Arrays.asList("low-memory", "balanced", "performance", "high-end").contains(name)) {
+            log("Unknown JVM profile '" + name + "', using " + detected + ".");
+            name = detected;
+        }
+
+        long heapMb;
+        String gc;
+        boolean preTouch = false;
+        switch (name) {
+            case "low-memory":
+                heapMb = Math.max(768, Math.min(1536, totalMb * 2 / 5));
+                gc = cpus <= 2 ? "serial" : "g1";
+                break;
+            case "balanced":
+                heapMb = 2048;
+                gc = "g1";
+                break;
+            case "performance":
+                heapMb = 4096;
+                gc = "g1";
+                preTouch = true;
+                break;
+            default: // high-end
+                heapMb = 6144;
+                gc = javaMajor >= 21 ? "zgc" : "g1";
+                preTouch = true;
+                break;
+        }
+        // Very old clients gain nothing from a large heap
+        if (versionId.startsWith("a1.") || versionId.startsWith("b1.") || versionId.startsWith("c0.")) {
+            heapMb = Math.min(heapMb, 1024);
+        }
+        String heapOverride = setting("jvm.heap." + versionId, setting("jvm.heap", null));
+        if (heapOverride != null) {
+            long parsed = parseSizeMb(heapOverride);
+            if (parsed >= 256) heapMb = parsed;
+            else log("Ignoring jvm.heap '" + heapOverride + "': expected a size of at least 256M, like 4G or 3072M.");
+        }
+        String gcOverride = setting("jvm.gc." + versionId, setting("jvm.gc", null));
+        if (gcOverride != null) {
+            if (Arrays.asList("serial", "parallel", "g1", "zgc", "shenandoah").contains(gcOverride)) gc = gcOverride;
+            else log("Unknown jvm.gc '" + gcOverride + "', using " + gc + ".");
+        }
+        if (!supportsGc(runtime, gc)) {
+            log("Java " + javaMajor + " at " + runtime.executable + " has no " + gc + " collector, using g1.");
+            gc = "g1";
+        }
+
+        JvmProfile p = new JvmProfile(name, totalMb / 1024 + " GB RAM, " + cpus + " CPUs, Java " + javaMajor);
+        p.args.add("-Xmx" + heapMb + "M");
+        p.args.add("-Xms" + (preTouch ? heapMb : Math.min(heapMb, 512)) + "M");
+        switch (gc) {
+            case "serial":
+                p.args.add("-XX:+UseSerialGC");
+                break;
+            case "parallel":
+                p.args.add("-XX:+UseParallelGC");
+                break;
+            case "zgc":
+                p.args.add("-XX:+UseZGC");
+                if (javaMajor == 21 || javaMajor == 22) p.args.add("-XX:+ZGenerational");
+                break;
+            case "shenandoah":
+                p.args.add("-XX:+UseShenandoahGC");
+                break;
+            default:
+                p.args.add("-XX:+UseG1GC");
+                p.args.add("-XX:MaxGCPauseMillis=50");
+                break;
+        }
+        if (!"serial".equals(gc)) {
+            int parallel = Math.max(2, Math.min(8, cpus - 2));
+            p.args.add("-XX:ParallelGCThreads=" + parallel);
+            p.args.add("-XX:ConcGCThreads=" + Math.max(1, parallel / 4));
+        }
+        if (preTouch) {
+            p.args.add("-XX:+AlwaysPreTouch");
+            if (osName().equals("linux")) p.args.add("-XX:+UseTransparentHugePages");
+        }
+        String extra = setting("jvm.args." + versionId, setting("jvm.args", null));
+        if (extra != null) {
+            for (String arg : extra.trim().split("\\s+")) {
+                if (!arg.isEmpty()) p.args.add(arg);
+            }
+        }
+        return p;
+    }
+
+    private void recordJvmProfile(String versionId, JvmProfile profile) {
+        String line = "JVM profile: " + profile.name + " (" + profile.reason + ") " + String.join(" ", profile.args);
+        log(line);
+        try {
+            writeAtomic(VERSIONS_DIR.resolve(versionId).resolve("jvm-profile.txt"),
+                    (line + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log("Could not record JVM profile: " + e.getMessage());
+        }
+    }
+
+    /** Total physical memory visible to this process (container-aware), falling back to /proc/meminfo. */
+    @SuppressWarnings("deprecation")
+    private static long totalMemoryBytes() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long total = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+            if (total > 0) return total;
+        }
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+                if (line.startsWith("MemTotal:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {}
+        return 4L * 1024 * 1024 * 1024;
+    }
+
+    /** Parses sizes like "3G", "2048M" or "2048" (MB); -1 if the text is not such a size. */
+    private static long parseSizeMb(String size) {
+        Matcher m = Pattern.compile("(\\d{1,7})([GM]?)").matcher(size.trim().toUpperCase(Locale.ROOT));
+        if (!m.matches()) return -1;
+        long n = Long.parseLong(m.group(1));
+        return m.group(2).equals("G") ? n * 1024 : n;
+    }
+
+    /**
+     * Whether the runtime can run the given collector. ZGC needs Java 15+ (experimental before),
+     * Shenandoah Java 12+ and a build that includes it (Oracle's do not), so beyond the version
+     * check the runtime is asked directly: java -XX:+Use<GC> -version fails when the flag is unknown.
+     */
+    private boolean supportsGc(JavaRuntime runtime, String gc) {
+        String flag;
+        switch (gc) {
+            case "zgc":
+                if (runtime.major < 15) return false;
+                flag = "-XX:+UseZGC";
+                break;
+            case "shenandoah":
+                if (runtime.major < 12) return false;
+                flag = "-XX:+UseShenandoahGC";
+                break;
+            default:
+                return true;
+        }
+        return gcSupport.computeIfAbsent(runtime.executable + " " + flag, key -> {
+            try {
+                Process p = new ProcessBuilder(runtime.executable, flag, "-version").redirectErrorStream(true).start();
+                p.getInputStream().transferTo(OutputStream.nullOutputStream());
+                return p.waitFor(20, TimeUnit.SECONDS) && p.exitValue() == 0;
+            } catch (IOException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+    }
+
+    // --- HELPER METHODS for downloading and resolving ---
+
+    private String ensureVersionJson(String versionId) throws Exception {
+        Path versionDir = VERSIONS_DIR.resolve(versionId);
+        Files.createDirectories(versionDir);
+        Path jsonPath = versionDir.resolve(versionId + ".json");
+        if (!Files.exists(jsonPath)) {
+            VersionInfo info = catalog.get(versionId);
+            String versionUrl = info != null ? info.url : null;
+            if (versionUrl == null) throw new Exception("Version not found in manifest");
+            log("Downloading version JSON for " + versionId + "...");
+            String json = httpGet(versionUrl);
+            writeAtomic(jsonPath, json.getBytes(StandardCharsets.UTF_8));
+        }
+        return new String(Files.readAllBytes(jsonPath), StandardCharsets.UTF_8);
+    }
+
+    private Path ensureClientJar(String versionId, String versionJson) throws Exception {
+        Path jarPath = VERSIONS_DIR.resolve(versionId).resolve(versionId + ".jar");
+        if (!Files.exists(jarPath)) {
+            String clientUrl = findClientUrl(versionJson, versionId);
+            if (clientUrl == null) throw new Exception("No client URL found");
+            log("Downloading client JAR for " + versionId + "...");
+            download(clientUrl, jarPath, getNested(versionJson, "downloads", "client", "sha1"));
+        }
+        return jarPath;
+    }
+
+    /** Returns the asset index JSON, downloading it if needed, or null for versions without one. */
+    private String ensureAssetIndex(String versionJson) throws IOException, InterruptedException {
+        String assetId = getNested(versionJson, "assetIndex", "id");
+        String assetUrl = getNested(versionJson, "assetIndex", "url");
+        if (assetId == null || assetUrl == null) return null;
+        Path assetIndexPath = ASSETS_DIR.resolve("indexes").resolve(assetId + ".json");
+        if (!Files.exists(assetIndexPath)) {
+            String assetIndexJson = httpGet(assetUrl);
+            writeAtomic(assetIndexPath, assetIndexJson.getBytes(StandardCharsets.UTF_8));
+        }
+        return new String(Files.readAllBytes(assetIndexPath), StandardCharsets.UTF_8);
+    }
+
+    private String httpGet(String url) throws IOException, InterruptedException {
+        HttpRequest req = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
+        HttpResponse<InputStream> resp = http().send(req, BodyHandlers.ofInputStream());
+        if (resp.statusCode() != 200) {
+            resp.body().close();
+            throw new IOException("HTTP " + resp.statusCode());
+        }
+        return new String(readLimited(resp), StandardCharsets.UTF_8);
+    }
+
+    private void download(String url, Path dest) throws IOException, InterruptedException {
+        download(url, dest, null);
+    }
+
+    /** Download to a .part file and move it into place; when sha1 is given the content must match it. */
+    private void download(String url, Path dest, String sha1) throws IOException, InterruptedException {
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> running = inFlight.putIfAbsent(dest, mine);
+        if (running != null) {
+            // Someone else (usually the prefetcher) is already fetching this file; wait for it
+            try {
+                running.get();
+                return;
+            } catch (ExecutionException | CancellationException e) {
+                if (Files.exists(dest)) return;
+                download(url, dest, sha1);
+                return;
+            }
+        }
+        Path part = dest.resolveSibling(dest.getFileName() + ".part");
+        String entry = dest.startsWith(ROOT) ? journalPath(dest) : null;
+        Files.createDirectories(dest.getParent());
+        // The transfer is guarded by an OS lock on its own .part only; the shared stripe lock is
+        // held just for verify-and-rename, so a long download never holds up unrelated files
+        try {
+            while (!downloadPart(url, dest, part, sha1, entry)) {
+                // The .part we locked was deleted or replaced while we waited; lock the current one
+            }
+            mine.complete(null);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(dest, mine);
+        }
+    }
+
+    /**
+     * One attempt at download() under the .part lock. Returns false, having changed nothing, when
+     * the locked file is no longer the one at part: its previous holder failed or was cancelled
+     * and deleted it, and another launcher may already be writing a new one.
+     */
+    private boolean downloadPart(String url, Path dest, Path part, String sha1, String entry)
+            throws IOException, InterruptedException {
+        try (FileChannel ch = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Object key = fileKey(part);
+            ch.lock(); // released when the channel closes
+            if (key == null || !key.equals(fileKey(part))) return false;
+            // Whoever held the .part before us may have finished and renamed it into place
+            if (Files.exists(dest)) {
+                if (ch.size() == 0) Files.deleteIfExists(part);
+                return true;
+            }
+            if (entry != null) journal("BEGIN", entry, url, sha1 == null ? "-" : sha1);
+            try {
+                // A .part left by a killed run is continued rather than started over, but only when the
+                // SHA-1 can tell whether the spliced result is right (the file may have changed upstream)
+                long have = sha1 != null ? ch.size() : 0;
+                int status = fetchToPart(url, ch, have);
+                if (status == 416 || have > 0 && status == 206 && !sha1.equalsIgnoreCase(sha1(ch))) {
+                    // The part is stale (longer than the file, already whole, or not a prefix of it); start over
+                    status = fetchToPart(url, ch, 0);
+                }
+                if (status != 200 && status != 206) {
+                    ch.truncate(0);
+                    Files.deleteIfExists(part);
+                    throw new IOException("Download failed: " + status);
+                }
+                if (sha1 != null && !sha1.equalsIgnoreCase(sha1(ch))) {
+                    ch.truncate(0);
+                    Files.deleteIfExists(part);
+                    throw new IOException("Checksum mismatch for " + dest.getFileName());
+                }
+            } catch (InterruptedException | IOException e) {
+                // Reads interrupted mid-body surface as IOExceptions with the interrupt flag set
+                if (!(e instanceof InterruptedException) && !Thread.interrupted()) throw e;
+                // Cancelled or shutting down: the exchange is aborted, drop the partial file too
+                Files.deleteIfExists(part);
+                if (entry != null) journal("ABORT", entry);
+                throw e instanceof InterruptedException ? (InterruptedException) e : new InterruptedException();
+            }
+            CacheLock lock = lockFor(dest);
+            try {
+                // Only what this channel wrote and verified may become dest
+                if (!key.equals(fileKey(part))) throw new IOException(part.getFileName() + " was replaced during the download");
+                moveAtomic(part, dest);
+            } finally {
+                lock.close();
+            }
+            if (entry != null) journal("DONE", entry);
+            return true;
+        }
+    }
+
+    /**
+     * Identity of the file at path, or null when there is none. Where the file system has no file
+     * keys (Windows) a locked or open file cannot be deleted either, so the path stands in for it.
+     */
+    private static Object fileKey(Path path) throws IOException {
+        try {
+            Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            return key != null ? key : path.toAbsolutePath();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * GET into part through the bandwidth budget: appended to when the server honours the range,
+     * rewritten when it sends the whole file. Returns the status code.
+     */
+    private int fetchToPart(String url, FileChannel part, long have) throws IOException, InterruptedException {
+        HttpRequest.Builder req = HttpRequest.newBuilder().uri(URI.create(url)).GET();
+        if (have > 0) req.header("Range", "bytes=" + have + "-");
+        HttpResponse<InputStream> resp = http().send(req.build(), BodyHandlers.ofInputStream());
+        // Closing the body early aborts the exchange
+        try (InputStream body = resp.body()) {
+            int status = resp.statusCode();
+            if (status != 200 && status != 206) return status;
+            // Writes go through the locking channel itself (Windows locks are mandatory)
+            part.truncate(status == 206 ? have : 0);
+            part.position(status == 206 ? have : 0);
+            copyLimited(body, Channels.newOutputStream(part));
+            return status;
+        }
+    }
+
+    /** Write via a uniquely named sibling temp file and rename, so readers never see a half-written file. */
+    private static void writeAtomic(Path dest, byte[] data) throws IOException {
+        Files.createDirectories(dest.getParent());
+        Path tmp = Files.createTempFile(dest.getParent(), dest.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, data);
+            moveAtomic(tmp, dest);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void moveAtomic(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // --- BANDWIDTH LIMITS ---
+
+    /**
+     * Token bucket over response-body bytes. Readers take tokens per chunk and may run into
+     * debt, then sleep until the debt is paid off, so concurrent downloads share the budget.
+     * The rate can be changed while downloads run; 0 means unlimited.
+     */
+    private static final class TokenBucket {
+        private volatile long bytesPerSecond;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        TokenBucket(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void setRate(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int bytes) throws InterruptedException {
+            long rate = bytesPerSecond;
+            if (rate <= 0) return;
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                // At most a second's worth (and never less than one chunk) can be saved up
+                double burst = Math.max(rate, 65536);
+                tokens = Math.min(burst, tokens + (now - last) * rate / 1e9) - bytes;
+                last = now;
+                waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / rate) : 0;
+            }
+            if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private static long limitSetting(String key) {
+        try {
+            return Math.max(0, Long.parseLong(setting(key, "0").trim())) * 1024;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** Runs work against the background budget; pools it creates inherit that. */
+    private void inBackground(Runnable work) {
+        TokenBucket previous = BUDGET.get();
+        BUDGET.set(backgroundBudget);
+        try {
+            work.run();
+        } finally {
+            BUDGET.set(previous);
+        }
+    }
+
+    /** Wraps a launch step so it draws on the interactive budget, whichever pool thread runs it. */
+    private <T> Callable<T> interactive(Callable<T> step) {
+        return () -> {
+            TokenBucket previous = BUDGET.get();
+            BUDGET.set(interactiveBudget);
+            try {
+                return step.call();
+            } finally {
+                BUDGET.set(previous);
+            }
+        };
+    }
+
+    private TokenBucket budget() {
+        TokenBucket b = BUDGET.get();
+        return b != null ? b : interactiveBudget;
+    }
+
+    /** Copies a response body through the current thread's budget. */
+    private void copyLimited(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        TokenBucket bucket = budget();
+        byte[] buf = new byte[16384];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+            bucket.acquire(n);
+            out.write(buf, 0, n);
+        }
+    }
+
+    private byte[] readLimited(HttpResponse<InputStream> resp) throws IOException, InterruptedException {
+        try (InputStream body = resp.body()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copyLimited(body, out);
+            return out.toByteArray();
+        }
+    }
+
+    private void showBandwidthDialog() {
+        JTextField interactive = new JTextField(setting("net.limit.interactiveKBps", "0"), 8);
+        JTextField background = new JTextField(setting("net.limit.backgroundKBps", "0"), 8);
+        JPanel panel = new JPanel(new GridLayout(0, 2, 8, 6));
+        panel.add(new JLabel("Launches (KB/s):"));
+        panel.add(interactive);
+        panel.add(new JLabel("Prefetch and resume (KB/s):"));
+        panel.add(background);
+        panel.add(new JLabel("0 = unlimited"));
+        if (JOptionPane.showConfirmDialog(frame, panel, "Bandwidth Limits", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        saveSetting("net.limit.interactiveKBps", interactive.getText().trim());
+        saveSetting("net.limit.backgroundKBps", background.getText().trim());
+        // Applies to downloads already running as well
+        interactiveBudget.setRate(limitSetting("net.limit.interactiveKBps"));
+        backgroundBudget.setRate(limitSetting("net.limit.backgroundKBps"));
+        log("Bandwidth limits: launches " + describeLimit(interactiveBudget.bytesPerSecond)
+                + ", background " + describeLimit(backgroundBudget.bytesPerSecond));
+    }
+
+    private static String describeLimit(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? "unlimited" : bytesPerSecond / 1024 + " KB/s";
+    }
+
+    // --- INSTALL JOURNAL ---
+
+    /**
+     * Append-only record of install work in ROOT/journal.log, one tab-separated entry per line:
+     * PLAN <version> when a launch starts installing, COMPLETE <version> once everything is on
+     * disk, and BEGIN <path> <url> <sha1> / DONE <path> around every download. ABORT <path> and
+     * CANCEL <version> close entries the user gave up on. Entries left open by a killed or
+     * closed launcher are resumed in the background at the next start. Every launcher appends
+     * under the file's cache lock, and compaction rewrites the file in place under the same
+     * lock, so the channels other launchers hold open stay valid.
+     */
+    private void journal(String... fields) {
+        // An interrupted thread would close the shared channel on write, so clear the flag meanwhile
+        boolean interrupted = Thread.interrupted();
+        Path file = ROOT.resolve("journal.log");
+        try {
+            CacheLock lock = lockFor(file);
+            try {
+                synchronized (journalLock) {
+                    if (journal == null || !journal.isOpen()) {
+                        journal = FileChannel.open(file, StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    }
+                    journal.write(ByteBuffer.wrap((String.join("\t", fields) + "\n").getBytes(StandardCharsets.UTF_8)));
+                }
+            } finally {
+                lock.close();
+            }
+        } catch (IOException | InterruptedException e) {
+            // Best effort: losing an entry only means less gets resumed
+            if (e instanceof InterruptedException) interrupted = true;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static String journalPath(Path file) {
+        return ROOT.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Reads the journal, compacts it down to the open entries, then resumes them. */
+    private void replayJournal() {
+        Path file = ROOT.resolve("journal.log");
+        if (!Files.exists(file)) return;
+        Set<String> planned = new LinkedHashSet<>();
+        Map<String, String[]> begun = new LinkedHashMap<>();
+        try {
+            CacheLock lock = lockFor(file);
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer all = ByteBuffer.allocate((int) ch.size());
+                while (all.hasRemaining() && ch.read(all, all.position()) > 0) {}
+                for (String line : new String(all.array(), 0, all.position(), StandardCharsets.UTF_8).split("\n")) {
+                    String[] f = line.split("\t");
+                    if (f[0].equals("PLAN") && f.length == 2) planned.add(f[1]);
+                    else if ((f[0].equals("COMPLETE") || f[0].equals("CANCEL")) && f.length == 2) planned.remove(f[1]);
+                    else if (f[0].equals("BEGIN") && f.length == 4) begun.put(f[1], f);
+                    else if ((f[0].equals("DONE") || f[0].equals("ABORT")) && f.length == 2) begun.remove(f[1]);
+                }
+                StringBuilder open = new StringBuilder();
+                for (String v : planned) open.append("PLAN\t").append(v).append('\n');
+                for (String[] b : begun.values()) open.append(String.join("\t", b)).append('\n');
+                // In place rather than replaced: other launchers' append handles keep pointing at this file
+                ch.truncate(0);
+                ByteBuffer rewritten = ByteBuffer.wrap(open.toString().getBytes(StandardCharsets.UTF_8));
+                while (rewritten.hasRemaining()) ch.write(rewritten, rewritten.position());
+                ch.force(false);
+            } finally {
+                lock.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (IOException e) {
+            log("Could not read install journal: " + e.getMessage());
+            return;
+        }
+        if (planned.isEmpty() && begun.isEmpty()) return;
+
+        log("Resuming " + begun.size() + " interrupted downloads and " + planned.size() + " installs...");
+        for (String[] b : begun.values()) {
+            Path dest = ROOT.resolve(b[1].replace('/', File.separatorChar)).normalize();
+            if (!dest.startsWith(ROOT)) continue;
+            try {
+                if (Files.exists(dest)) journal("DONE", b[1]);
+                else download(b[2], dest, "-".equals(b[3]) ? null : b[3]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                log("  Resume of " + dest.getFileName() + " failed: " + e.getMessage());
+            }
+        }
+        for (String versionId : planned) {
+            if (Thread.currentThread().isInterrupted()) return;
+            resumeInstall(versionId);
+        }
+    }
+
+    /** Everything a launch downloads for a version, without launching it. */
+    private void resumeInstall(String versionId) {
+        try {
+            long start = System.nanoTime();
+            String versionJson = ensureVersionJson(versionId);
+            ensureClientJar(versionId, versionJson);
+            downloadLibraries(versionJson, false);
+            ensureJavaRuntime(versionJson);
+            String assetIndexJson = ensureAssetIndex(versionJson);
+            if (assetIndexJson != null) downloadAssets(assetIndexJson, false);
+            journal("COMPLETE", versionId);
+            metric("resume." + versionId, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log("Resume of " + versionId + " failed: " + e.getMessage());
+        }
+    }
+
+    // --- PACKED ASSET STORE ---
+
+    /**
+     * Optional home for asset objects: objects are appended to large segment files under
+     * assets/packs and found through an append-only index (hash, segment, offset, length).
+     * Segments are memory-mapped for reads. Loose objects/<xx>/<hash> copies are written only
+     * for launches of indexes that read them and removed again when those games exit; legacy
+     * layouts are copied straight from the pack. The cache GC compacts away unreferenced objects.
+     */
+    private final class PackStore {
+        private static final long SEGMENT_LIMIT = 256L << 20;
+
+        private final Path dir = ASSETS_DIR.resolve("packs");
+        private final Path indexFile = dir.resolve("index.tsv");
+        private final Map<String, long[]> index = new ConcurrentHashMap<>();
+        private final Map<Integer, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+        private long indexRead;
+        private int lastSegment;
+        // Identity of the index file read so far; a compaction replaces the file
+        private Object indexKey;
+
+        PackStore() throws IOException {
+            Files.createDirectories(dir);
+            refresh();
+        }
+
+        /** Picks up index lines appended since the last read, including those of other launchers. */
+        private synchronized void refresh() throws IOException {
+            if (!Files.exists(indexFile)) return;
+            BasicFileAttributes attrs = Files.readAttributes(indexFile, BasicFileAttributes.class);
+            Object key = attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+            if (!key.equals(indexKey) || attrs.size() < indexRead) {
+                // Compacted (here or by another launcher): every location may have moved
+                index.clear();
+                mapped.clear();
+                indexRead = 0;
+                indexKey = key;
+            }
+            if (attrs.size() <= indexRead) return;
+            ByteBuffer tail;
+            try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                tail = ByteBuffer.allocate((int) (ch.size() - indexRead));
+                while (tail.hasRemaining() && ch.read(tail, indexRead + tail.position()) > 0) {}
+            }
+            // Only complete lines; a line still being written is picked up next time
+            int end = tail.position();
+            while (end > 0 && tail.get(end - 1) != '\n') end--;
+            indexRead += end;
+            for (String line : new String(tail.array(), 0, end, StandardCharsets.UTF_8).split("\n")) {
+                String[] p = line.split("\t");
+                // Lines torn by a crashed writer are skipped
+                if (p.length != 4 || p[0].length() != 40) continue;
+                try {
+                    long[] loc = {Long.parseLong(p[1]), Long.parseLong(p[2]), Long.parseLong(p[3])};
+                    index.put(p[0], loc);
+                    lastSegment = Math.max(lastSegment, (int) loc[0]);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+
+        boolean contains(String hash) throws IOException {
+            if (index.containsKey(hash)) return true;
+            refresh();
+            return index.containsKey(hash);
+        }
+
+        long size(String hash) throws IOException {
+            return locate(hash)[2];
+        }
+
+        /**
+         * The object's location, read once: a refresh that notices a compaction clears the
+         * index, so a separate contains() check could be stale by the time of the lookup.
+         */
+        private long[] locate(String hash) throws IOException {
+            long[] loc = index.get(hash);
+            if (loc == null) {
+                refresh();
+                loc = index.get(hash);
+            }
+            if (loc == null) throw new NoSuchFileException(hash);
+            return loc;
+        }
+
+        private Path segment(int n) {
+            return dir.resolve(String.format("pack-%04d.dat", n));
+        }
+
+        /**
+         * Appends verified objects under one index lock. Objects some launcher already packed are
+         * skipped unless replace is set (repair), in which case the new copy's index line wins.
+         */
+        void append(Map<String, byte[]> objects, boolean replace) throws IOException, InterruptedException {
+            if (objects.isEmpty()) return;
+            CacheLock lock = lockFor(indexFile);
+            try {
+                refresh();
+                StringBuilder lines = new StringBuilder();
+                Map<String, long[]> added = new HashMap<>();
+                int seg = lastSegment;
+                FileChannel ch = FileChannel.open(segment(seg), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                try {
+                    for (Map.Entry<String, byte[]> e : objects.entrySet()) {
+                        if (!replace && index.containsKey(e.getKey())) continue;
+                        byte[] data = e.getValue();
+                        if (ch.size() > 0 && ch.size() + data.length > SEGMENT_LIMIT) {
+                            ch.force(false);
+                            ch.close();
+                            ch = FileChannel.open(segment(++seg), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        }
+                        long offset = ch.size();
+                        ByteBuffer buf = ByteBuffer.wrap(data);
+                        while (buf.hasRemaining()) ch.write(buf, offset + buf.position());
+                        lines.append(e.getKey()).append('\t').append(seg).append('\t').append(offset)
+                                .append('\t').append(data.length).append('\n');
+                        added.put(e.getKey(), new long[]{seg, offset, data.length});
+                    }
+                    // Data on disk before the index points at it; after a crash an object is missing, never zeros
+                    ch.force(false);
+                } finally {
+                    ch.close();
+                }
+                if (added.isEmpty()) return;
+                try (FileChannel out = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    out.write(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)));
+                }
+                synchronized (this) {
+                    index.putAll(added);
+                    lastSegment = Math.max(lastSegment, seg);
+                }
+            } finally {
+                lock.close();
+            }
+        }
+
+        /** A read-only view of the object, served from the mapped segment. */
+        ByteBuffer read(String hash) throws IOException {
+            try {
+                return slice(hash);
+            } catch (NoSuchFileException e) {
+                // The segment may have been compacted away by another launcher since the last refresh
+                refresh();
+                return slice(hash);
+            }
+        }
+
+        private ByteBuffer slice(String hash) throws IOException {
+            long[] loc = locate(hash);
+            int seg = (int) loc[0];
+            MappedByteBuffer buf = mapped.get(seg);
+            if (buf == null || buf.capacity() < loc[1] + loc[2]) {
+                // Segments only grow, so remapping the whole file covers everything indexed so far
+                try (FileChannel ch = FileChannel.open(segment(seg), StandardOpenOption.READ)) {
+                    buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                }
+                mapped.put(seg, buf);
+            }
+            return buf.slice((int) loc[1], (int) loc[2]);
+        }
+
+        /**
+         * Writes the object out as a loose file at dest (any layout), unless it is already there.
+         * The packed copy is checked against its hash first; a damaged one is fetched again and
+         * replaced in the pack, so it is not handed to every later launch.
+         */
+        void materialize(String hash, Path dest) throws IOException {
+            if (Files.exists(dest)) return;
+            ByteBuffer src = read(hash);
+            if (!hash.equalsIgnoreCase(sha1(src.duplicate()))) src = repair(hash);
+            Files.createDirectories(dest.getParent());
+            Path tmp = Files.createTempFile(dest.getParent(), dest.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    while (src.hasRemaining()) out.write(src);
+                }
+                moveAtomic(tmp, dest);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private ByteBuffer repair(String hash) throws IOException {
+            log("  Packed copy of asset " + hash + " is damaged, fetching it again");
+            try {
+                byte[] data = fetchObject(hash);
+                append(Map.of(hash, data), true);
+                return ByteBuffer.wrap(data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+        }
+
+        /** Packed objects not in live, with their sizes. */
+        synchronized Map<String, Long> dead(Set<String> live) throws IOException {
+            refresh();
+            Map<String, Long> out = new HashMap<>();
+            for (Map.Entry<String, long[]> e : index.entrySet()) {
+                if (!live.contains(e.getKey())) out.put(e.getKey(), e.getValue()[2]);
+            }
+            return out;
+        }
+
+        /** Bytes in the segments that no index entry points at, e.g. copies superseded by a repair. */
+        synchronized long slack() throws IOException {
+            refresh();
+            long indexed = 0;
+            for (long[] loc : index.values()) indexed += loc[2];
+            return Math.max(0, stored() - indexed);
+        }
+
+        /**
+         * Copies every object except those in drop into fresh segments, replaces the index with
+         * theirs and deletes the old segments. Returns the bytes reclaimed. Objects packed since
+         * drop was worked out are kept. Launchers holding the old index notice the new file on
+         * their next refresh; segments still mapped elsewhere (Windows) go on a later run.
+         */
+        long compact(Set<String> drop) throws IOException, InterruptedException {
+            CacheLock lock = lockFor(indexFile);
+            try {
+                refresh();
+                long before = stored();
+                List<Map.Entry<String, long[]>> keep = new ArrayList<>();
+                for (Map.Entry<String, long[]> e : index.entrySet()) {
+                    if (!drop.contains(e.getKey())) keep.add(e);
+                }
+                if (keep.size() < index.size() || slack() > 0) {
+                    // Sequential reads of the old segments
+                    keep.sort(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0])
+                            .thenComparingLong(e -> e.getValue()[1]));
+                    int seg = lastSegment + 1;
+                    StringBuilder lines = new StringBuilder();
+                    FileChannel ch = FileChannel.open(segment(seg), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
                     try {
-                        Files.createDirectories(file.getParent());
-                        download(nativeUrl, file);
-                        log("  Downloaded native: " + file.getFileName());
-                    } catch (Exception e) {
-                        log("  Failed to download native: " + e.getMessage());
+                        for (Map.Entry<String, long[]> e : keep) {
+                            if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                            ByteBuffer src = slice(e.getKey());
+                            if (ch.size() > 0 && ch.size() + src.remaining() > SEGMENT_LIMIT) {
+                                ch.close();
+                                ch = FileChannel.open(segment(++seg), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                            }
+                            long offset = ch.size();
+                            int length = src.remaining();
+                            while (src.hasRemaining()) ch.write(src, offset + (length - src.remaining()));
+                            lines.append(e.getKey()).append('\t').append(seg).append('\t').append(offset)
+                                    .append('\t').append(length).append('\n');
+                        }
+                        ch.force(true);
+                    } finally {
+                        ch.close();
+                    }
+                    writeAtomic(indexFile, lines.toString().getBytes(StandardCharsets.UTF_8));
+                    refresh();
+                }
+                // Old segments, and any left behind by an earlier run
+                Set<Integer> used = new HashSet<>();
+                for (long[] loc : index.values()) used.add((int) loc[0]);
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "pack-*.dat")) {
+                    for (Path p : ds) {
+                        String name = p.getFileName().toString();
+                        try {
+                            if (!used.contains(Integer.parseInt(name.substring(5, name.length() - 4)))) Files.deleteIfExists(p);
+                        } catch (NumberFormatException | IOException stillMapped) {
+                            // not ours, or still mapped somewhere (Windows); retried by the next compaction
+                        }
                     }
                 }
+                return before - stored();
+            } finally {
+                lock.close();
+            }
+        }
+
+        private long stored() throws IOException {
+            long total = 0;
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "pack-*.dat")) {
+                for (Path p : ds) total += Files.size(p);
+            }
+            return total;
+        }
+    }
+
+    private PackStore packStore() throws IOException {
+        PackStore p = packStore;
+        if (p == null) {
+            synchronized (this) {
+                p = packStore;
+                if (p == null) packStore = p = new PackStore();
+            }
+        }
+        return p;
+    }
+
+    private static boolean packHolds(PackStore pack, String hash) {
+        try {
+            return pack.contains(hash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Fetches one asset object, checked against its hash. */
+    private byte[] fetchObject(String hash) throws IOException, InterruptedException {
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(RESOURCES_URL + hash.substring(0, 2) + "/" + hash)).GET().build();
+        HttpResponse<InputStream> resp = http().send(req, BodyHandlers.ofInputStream());
+        if (resp.statusCode() != 200) {
+            resp.body().close();
+            throw new IOException("Download failed: " + resp.statusCode());
+        }
+        byte[] data = readLimited(resp);
+        if (!hash.equalsIgnoreCase(sha1(data))) throw new IOException("Checksum mismatch for " + hash);
+        return data;
+    }
+
+    // --- CROSS-PROCESS CACHE LOCKING ---
+
+    /** One held stripe: the in-process lock plus an OS file lock that other launchers also honour. */
+    private static final class CacheLock implements AutoCloseable {
+        private final ReentrantLock local;
+        private final FileChannel channel;
+        private final FileLock fileLock;
+
+        CacheLock(ReentrantLock local, FileChannel channel, FileLock fileLock) {
+            this.local = local;
+            this.channel = channel;
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (channel != null) {
+                    fileLock.release();
+                    channel.close();
+                }
+            } finally {
+                local.unlock();
+            }
+        }
+    }
+
+    private static int stripeOf(Path target) {
+        Path abs = target.toAbsolutePath().normalize();
+        if (abs.startsWith(ASSETS_DIR.resolve("objects").toAbsolutePath()) && abs.getParent() != null
+                && abs.getParent().getFileName().toString().matches("[0-9a-f]{2}")) {
+            return Integer.parseInt(abs.getParent().getFileName().toString(), 16);
+        }
+        return (abs.toString().hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
+
+    /**
+     * Locks the stripe covering target. Asset objects use their two-character hash prefix,
+     * everything else a hash of the path, so unrelated files rarely contend and nothing
+     * serializes on a single global lock. The lock files live in locks/.
+     */
+    private CacheLock lockFor(Path target) throws IOException, InterruptedException {
+        int stripe = stripeOf(target);
+        ReentrantLock local = stripeLocks[stripe];
+        local.lockInterruptibly();
+        // A second OS lock on the same stripe from this JVM would throw OverlappingFileLockException
+        if (local.getHoldCount() > 1) return new CacheLock(local, null, null);
+        FileChannel ch = null;
+        try {
+            Path lockFile = ROOT.resolve("locks").resolve(String.format("%02x.lock", stripe));
+            Files.createDirectories(lockFile.getParent());
+            ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new CacheLock(local, ch, ch.lock());
+        } catch (IOException | RuntimeException e) {
+            if (ch != null) ch.close();
+            local.unlock();
+            throw e;
+        }
+    }
+
+    private String findClientUrl(String versionJson, String versionId) {
+        String u = getNested(versionJson, "downloads", "client", "url");
+        if (u != null) return u;
+        // fallback
+        return "https://s3.amazonaws.com/Minecraft.Download/versions/" + versionId + "/" + versionId + ".jar";
+    }
+
+    /** Library and native jar paths this version needs on this OS, without touching the network. */
+    private List<Path> resolveLibraries(String versionJson) {
+        List<Path> out = new ArrayList<>();
+        forEachLibrary(versionJson, (libObj, os) -> {
+            String path = getNested(libObj, "downloads", "artifact", "path");
+            if (path != null) out.add(LIBRARIES_DIR.resolve(path.replace('/', File.separatorChar)));
+            String nativePath = nativeDownload(libObj, os, "path");
+            if (nativePath != null) out.add(LIBRARIES_DIR.resolve(nativePath.replace('/', File.separatorChar)));
+        });
+        return out;
+    }
+
+    /** Download every missing library and native jar listed by the version JSON. */
+    private void downloadLibraries(String versionJson, boolean verbose) throws InterruptedException {
+        List<String[]> wanted = new ArrayList<>();
+        forEachLibrary(versionJson, (libObj, os) -> {
+            String path = getNested(libObj, "downloads", "artifact", "path");
+            String url = getNested(libObj, "downloads", "artifact", "url");
+            String sha1 = getNested(libObj, "downloads", "artifact", "sha1");
+            if (path != null && url != null && !Files.exists(libraryFile(path))) wanted.add(new String[]{path, url, sha1});
+            String nativePath = nativeDownload(libObj, os, "path");
+            String nativeUrl = nativeDownload(libObj, os, "url");
+            String nativeSha1 = nativeDownload(libObj, os, "sha1");
+            if (nativePath != null && nativeUrl != null && !Files.exists(libraryFile(nativePath))) {
+                wanted.add(new String[]{nativePath, nativeUrl, nativeSha1});
             }
+        });
+        if (wanted.isEmpty()) return;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(8, wanted.size()));
+        CountDownLatch latch = new CountDownLatch(wanted.size());
+        for (String[] lib : wanted) {
+            pool.submit(() -> {
+                Path file = libraryFile(lib[0]);
+                try {
+                    download(lib[1], file, lib[2]);
+                    if (verbose) log("  Downloaded library: " + file.getFileName());
+                } catch (InterruptedException e) {
+                    // cancelled; the pool is being shut down
+                } catch (Exception e) {
+                    log("  Failed to download library: " + e.getMessage());
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            throw e;
+        }
+        pool.shutdown();
+    }
+
+    private static Path libraryFile(String mavenPath) {
+        return LIBRARIES_DIR.resolve(mavenPath.replace('/', File.separatorChar));
+    }
+
+    private interface LibraryVisitor {
+        void visit(String libObj, String os);
+    }
+
+    private void forEachLibrary(String versionJson, LibraryVisitor visitor) {
+        String os = osName();
+        int libIdx = versionJson.indexOf("\"libraries\"");
+        if (libIdx < 0) return;
+        int arrStart = versionJson.indexOf('[', libIdx);
+        if (arrStart < 0) return;
+        int depth = 0, objStart = -1;
+        for (int i = arrStart + 1; i < versionJson.length(); i++) {
+            char c = versionJson.charAt(i);
+            if (c == '{') {
+                if (depth == 0) objStart = i;
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0 && objStart >= 0) {
+                    String libObj = versionJson.substring(objStart, i + 1);
+                    if (!libObj.contains("\"rules\"") || rulesOk(libObj, os)) visitor.visit(libObj, os);
+                    objStart = -1;
+                }
+            } else if (c == ']' && depth == 0) break;
         }
     }
 
+    /** handle natives (4 levels: downloads.classifiers.<classifier>.<field>) */
+    private String nativeDownload(String libObj, String os, String field) {
+        String classifier = "natives-" + os;
+        if (!libObj.contains("\"classifiers\"") || !libObj.contains(classifier)) return null;
+        return getNested(libObj, "downloads", "classifiers", classifier, field);
+    }
+
     private boolean rulesOk(String libObj, String os) {
         // Simplified rule check – you may want to expand this.
         // For now, assume allowed if no disallow rule for this OS.
@@ -719,8 +4031,9 @@ public class Program {
         return !libObj.contains("\"action\":\"disallow\"") || !libObj.contains("\"name\":\"" + os + "\"");
     }
 
-    private void extractNatives(List<Path> libPaths, Path nativesDir) {
+    private void extractNatives(List<Path> libPaths, Path nativesDir) throws InterruptedException {
         for (Path jar : libPaths) {
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
             if (jar.toString().contains("natives") && Files.exists(jar)) {
                 try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(jar))) {
                     ZipEntry entry;
@@ -729,10 +4042,25 @@ public class Program {
                         if (name.endsWith(".dll") || name.endsWith(".so") || name.endsWith(".dylib") || name.endsWith(".jnilib")) {
                             Path out = nativesDir.resolve(Paths.get(name).getFileName());
                             if (!Files.exists(out)) {
-                                Files.copy(zis, out);
+                                CacheLock lock = lockFor(out);
+                                try {
+                                    if (!Files.exists(out)) {
+                                        Path part = out.resolveSibling(out.getFileName() + ".part");
+                                        try {
+                                            Files.copy(zis, part, StandardCopyOption.REPLACE_EXISTING);
+                                            moveAtomic(part, out);
+                                        } finally {
+                                            Files.deleteIfExists(part);
+                                        }
+                                    }
+                                } finally {
+                                    lock.close();
+                                }
                             }
                         }
                     }
+                } catch (InterruptedException e) {
+                    throw e;
                 } catch (Exception e) {
                     log("Error extracting natives from " + jar + ": " + e.getMessage());
                 }
@@ -740,14 +4068,18 @@ public class Program {
         }
     }
 
-    private void downloadAssets(String assetIndexJson) {
-        Pattern hashPat = Pattern.compile("\"hash\"\\s*:\\s*\"([0-9a-f]{40})\"");
-        Matcher m = hashPat.matcher(assetIndexJson);
+    /** Fetches the index's objects; forLaunch says whether a game is about to read them from disk. */
+    private void downloadAssets(String assetIndexJson, boolean forLaunch) throws InterruptedException {
+        Matcher m = ASSET_HASH_PATTERN.matcher(assetIndexJson);
         List<String> hashes = new ArrayList<>();
         while (m.find()) hashes.add(m.group(1));
         if (hashes.isEmpty()) return;
 
         Path objectsDir = ASSETS_DIR.resolve("objects");
+        if (flag("assets.packStore", false)) {
+            downloadAssetsPacked(hashes, objectsDir, forLaunch && !legacyLayout(assetIndexJson));
+            return;
+        }
         List<String> needed = new ArrayList<>();
         for (String hash : hashes) {
             Path file = objectsDir.resolve(hash.substring(0, 2)).resolve(hash);
@@ -769,9 +4101,11 @@ public class Program {
                     Path file = objectsDir.resolve(prefix).resolve(hash);
                     Files.createDirectories(file.getParent());
                     String url = RESOURCES_URL + prefix + "/" + hash;
-                    download(url, file);
+                    download(url, file, hash);
                     int d = done.incrementAndGet();
                     if (d % 50 == 0) log("  Assets: " + d + "/" + needed.size());
+                } catch (InterruptedException e) {
+                    // cancelled; the pool is being shut down
                 } catch (Exception e) {
                     log("  Asset download failed: " + e.getMessage());
                 } finally {
@@ -779,11 +4113,290 @@ public class Program {
                 }
             });
         }
-        try { latch.await(); } catch (InterruptedException ignored) {}
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            // Interrupting the workers aborts their downloads and removes the partial files
+            pool.shutdownNow();
+            throw e;
+        }
         pool.shutdown();
         log("Assets download complete.");
     }
 
+    /**
+     * Pack-store variant: missing objects go into the pack (adopting matching loose files) and,
+     * for a launch of an index that reads objects/ directly, the loose copies it needs are written.
+     * Otherwise loose copies of packed objects that no running game needs are removed.
+     */
+    private void downloadAssetsPacked(List<String> hashes, Path objectsDir, boolean looseNeeded) throws InterruptedException {
+        try {
+            PackStore pack = packStore();
+            List<String> needed = new ArrayList<>();
+            for (String hash : new LinkedHashSet<>(hashes)) {
+                if (!pack.contains(hash)) needed.add(hash);
+            }
+            if (!needed.isEmpty()) {
+                log("Packing " + needed.size() + " assets...");
+                long start = System.nanoTime();
+                AtomicInteger failed = new AtomicInteger();
+                // Workers fetch; this thread appends in batches so the index lock is taken once per batch
+                BlockingQueue<Object[]> fetched = new ArrayBlockingQueue<>(128);
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(8, needed.size()));
+                try {
+                    for (String hash : needed) {
+                        pool.submit(() -> {
+                            byte[] data = null;
+                            Path loose = objectsDir.resolve(hash.substring(0, 2)).resolve(hash);
+                            try {
+                                // Loose objects from before the pack store was enabled are adopted, not re-fetched
+                                data = Files.exists(loose) ? Files.readAllBytes(loose) : null;
+                                if (data == null || !hash.equals(sha1(data))) data = fetchObject(hash);
+                            } catch (InterruptedException | ClosedByInterruptException e) {
+                                return null;
+                            } catch (IOException e) {
+                                data = null;
+                                failed.incrementAndGet();
+                                log("  Asset download failed: " + e.getMessage());
+                            }
+                            fetched.put(new Object[]{hash, data});
+                            return null;
+                        });
+                    }
+                    Map<String, byte[]> batch = new LinkedHashMap<>();
+                    for (int i = 0; i < needed.size(); i++) {
+                        Object[] item = fetched.take();
+                        if (item[1] != null) batch.put((String) item[0], (byte[]) item[1]);
+                        if (batch.size() >= 64 || i == needed.size() - 1) {
+                            pack.append(batch, false);
+                            batch.clear();
+                        }
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+                metric("assets.pack", System.nanoTime() - start);
+                if (failed.get() > 0) log("  " + failed.get() + " assets could not be packed.");
+            }
+
+            if (!looseNeeded) {
+                dropLooseCopies();
+                log("Assets ready in the pack.");
+                return;
+            }
+            long start = System.nanoTime();
+            AtomicInteger written = new AtomicInteger();
+            hashes.parallelStream().distinct().forEach(hash -> {
+                Path loose = objectsDir.resolve(hash.substring(0, 2)).resolve(hash);
+                try {
+                    if (!Files.exists(loose) && pack.contains(hash)) {
+                        pack.materialize(hash, loose);
+                        written.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    log("  Could not materialize " + hash + ": " + e.getMessage());
+                }
+            });
+            metric("assets.materialize", System.nanoTime() - start);
+            log("Assets ready (" + written.get() + " loose objects written from the pack).");
+        } catch (IOException e) {
+            log("Pack store failed: " + e.getMessage());
+        }
+    }
+
+    /** Indexes with a name-based layout take their files from the pack and never read objects/. */
+    private static boolean legacyLayout(String assetIndexJson) {
+        return "true".equals(getNested(assetIndexJson, "map_to_resources"))
+                || "true".equals(getNested(assetIndexJson, "virtual"));
+    }
+
+    // --- LOOSE COPIES OF PACKED ASSETS ---
+
+    /**
+     * Marks the loose copies of assetId's objects as in use by the process pid. Markers live in
+     * assets/packs/in-use as <pid>.<assetId> so every launcher sees what running games need.
+     */
+    private Path retainLooseAssets(String assetId, long pid) throws IOException, InterruptedException {
+        Path inUse = ASSETS_DIR.resolve("packs").resolve("in-use");
+        Files.createDirectories(inUse);
+        CacheLock lock = lockFor(inUse);
+        try {
+            Path marker = inUse.resolve(pid + "." + assetId);
+            if (!Files.exists(marker)) Files.createFile(marker);
+            return marker;
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Moves a launch's marker over to the game it started, which may outlive this launcher. */
+    private Path handOverLooseAssets(Path marker, long pid) throws IOException {
+        String name = marker.getFileName().toString();
+        Path moved = marker.resolveSibling(pid + name.substring(name.indexOf('.')));
+        moveAtomic(marker, moved);
+        return moved;
+    }
+
+    private void releaseLooseAssets(Path marker) {
+        try {
+            Files.deleteIfExists(marker);
+            dropLooseCopies();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log("Could not remove loose assets: " + e.getMessage());
+        }
+    }
+
+    /** Hashes of the indexes that live processes have marked in use; markers of dead processes are removed. */
+    private Set<String> looseAssetsInUse() throws IOException {
+        Set<String> hashes = new HashSet<>();
+        Path inUse = ASSETS_DIR.resolve("packs").resolve("in-use");
+        if (!Files.isDirectory(inUse)) return hashes;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(inUse)) {
+            for (Path marker : ds) {
+                String name = marker.getFileName().toString();
+                int dot = name.indexOf('.');
+                long pid;
+                try {
+                    pid = Long.parseLong(name.substring(0, Math.max(dot, 0)));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (!ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+                    Files.deleteIfExists(marker);
+                    continue;
+                }
+                Path index = ASSETS_DIR.resolve("indexes").resolve(name.substring(dot + 1) + ".json");
+                if (!Files.exists(index)) continue;
+                Matcher m = ASSET_HASH_PATTERN.matcher(new String(Files.readAllBytes(index), StandardCharsets.UTF_8));
+                while (m.find()) hashes.add(m.group(1));
+            }
+        }
+        return hashes;
+    }
+
+    /** Deletes loose objects the pack also holds, except those a running game may still read. */
+    private void dropLooseCopies() throws IOException, InterruptedException {
+        if (!flag("assets.packStore", false)) return;
+        Path objectsDir = ASSETS_DIR.resolve("objects");
+        if (!Files.isDirectory(objectsDir)) return;
+        PackStore pack = packStore();
+        Path inUse = ASSETS_DIR.resolve("packs").resolve("in-use");
+        Files.createDirectories(inUse);
+        // Held for the whole sweep, so a launch cannot mark and write copies half-way through it
+        CacheLock sweep = lockFor(inUse);
+        int removed = 0;
+        try (Stream<Path> files = Files.walk(objectsDir, 2)) {
+            Set<String> keep = looseAssetsInUse();
+            for (Path loose : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String hash = loose.getFileName().toString();
+                if (hash.length() != 40 || keep.contains(hash) || !pack.contains(hash)) continue;
+                CacheLock lock = lockFor(loose);
+                try {
+                    if (Files.deleteIfExists(loose)) removed++;
+                } finally {
+                    lock.close();
+                }
+            }
+        } finally {
+            sweep.close();
+        }
+        if (removed > 0) log("Removed " + removed + " loose asset copies held by the pack.");
+    }
+
+    // --- LEGACY ASSET LAYOUTS ---
+
+    /**
+     * Old asset indexes ask for files by name rather than by hash: "virtual" ones under
+     * assets/virtual/<id>, "map_to_resources" ones under <gameDir>/resources. That tree is
+     * built from the hash store with hard links (copies where linking is not possible, or of
+     * objects only the pack holds) and only entries that are missing or stale are touched. Returns the directory the game
+     * should use as ${game_assets}, or null for indexes that need neither layout.
+     */
+    private Path materializeLegacyAssets(String assetIndexJson, String assetId, Path gameDir) throws IOException {
+        Path target;
+        if ("true".equals(getNested(assetIndexJson, "map_to_resources"))) {
+            target = gameDir.resolve("resources");
+        } else if ("true".equals(getNested(assetIndexJson, "virtual"))) {
+            target = ASSETS_DIR.resolve("virtual").resolve(assetId);
+        } else {
+            return null;
+        }
+        String objects = jsonBlock(assetIndexJson, "objects");
+        if (objects == null) return target;
+
+        List<String[]> entries = new ArrayList<>();
+        forEachEntry(objects, (name, value) -> {
+            String hash = getNested(value, "hash");
+            if (hash != null && hash.length() == 40) entries.add(new String[]{name, hash});
+        });
+        Path root = target.toAbsolutePath().normalize();
+        Path objectsDir = ASSETS_DIR.resolve("objects");
+        PackStore pack = flag("assets.packStore", false) ? packStore() : null;
+        AtomicInteger linked = new AtomicInteger(), copied = new AtomicInteger(), failed = new AtomicInteger();
+        long start = System.nanoTime();
+        entries.parallelStream().forEach(e -> {
+            Path dest = root.resolve(e[0]).normalize();
+            Path source = objectsDir.resolve(e[1].substring(0, 2)).resolve(e[1]);
+            if (!dest.startsWith(root)) {
+                failed.incrementAndGet();
+                return;
+            }
+            try {
+                if (!Files.exists(source)) {
+                    // Packed objects are copied out of the pack; there is no loose file to link
+                    if (pack == null || !pack.contains(e[1])) {
+                        failed.incrementAndGet();
+                        return;
+                    }
+                    if (Files.exists(dest) && Files.size(dest) == pack.size(e[1]) && e[1].equals(cachedSha1(dest))) return;
+                    Files.deleteIfExists(dest);
+                    pack.materialize(e[1], dest);
+                    copied.incrementAndGet();
+                    return;
+                }
+                if (Files.exists(dest) && upToDate(dest, source)) return;
+                Files.createDirectories(dest.getParent());
+                Files.deleteIfExists(dest);
+                try {
+                    Files.createLink(dest, source);
+                    linked.incrementAndGet();
+                } catch (IOException | UnsupportedOperationException crossDevice) {
+                    Files.copy(source, dest, StandardCopyOption.REPLACE_EXISTING);
+                    copied.incrementAndGet();
+                }
+            } catch (IOException ex) {
+                failed.incrementAndGet();
+            }
+        });
+        if (pack != null) hashCache().save();
+        metric("assets.legacyLayout", System.nanoTime() - start);
+        log("Legacy asset layout in " + target + ": " + linked.get() + " linked, " + copied.get() + " copied, "
+                + (entries.size() - linked.get() - copied.get() - failed.get()) + " unchanged"
+                + (failed.get() > 0 ? ", " + failed.get() + " skipped" : ""));
+        return target;
+    }
+
+    /** The file's SHA-1, from the hash cache when its fingerprint is unchanged. */
+    private String cachedSha1(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String sha1 = hashCache().lookup(file, attrs);
+        if (sha1 == null) {
+            sha1 = sha1Mapped(file);
+            hashCache().record(file, attrs, sha1);
+        }
+        return sha1;
+    }
+
+    /** A name in the legacy tree is current if it is a link to the object, or a copy made after it. */
+    private static boolean upToDate(Path dest, Path source) throws IOException {
+        BasicFileAttributes d = Files.readAttributes(dest, BasicFileAttributes.class);
+        BasicFileAttributes s = Files.readAttributes(source, BasicFileAttributes.class);
+        if (d.fileKey() != null && d.fileKey().equals(s.fileKey())) return true;
+        return d.size() == s.size() && d.lastModifiedTime().compareTo(s.lastModifiedTime()) >= 0;
+    }
+
     // --- Enhanced JSON helpers ---
 
     /** Extract a string value for a top-level key. */
@@ -792,15 +4405,22 @@ public class Program {
         return m.find() ? m.group(1) : null;
     }
 
-    /** Extract a nested value given a sequence of keys (up to any depth). */
-    private String getNested(String json, String... keys) {
+    /**
+     * Extract a nested value given a sequence of keys (up to any depth). Objects are matched
+     * with balanced braces, so nested objects (downloads.artifact.url) resolve correctly.
+     * Returns the raw object/array text when the last key names one.
+     */
+    private static String getNested(String json, String... keys) {
         if (keys.length == 0) return null;
         String current = json;
         for (String key : keys) {
-            Matcher m = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:\\s*(\\{[^\\{\\}]*\\}|\"[^\"]*\"|[^,}\\]\\s]+)").matcher(current);
+            Matcher m = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:").matcher(current);
             if (!m.find()) return null;
-            String value = m.group(1).trim();
-            if (value.startsWith("{")) {
+            int start = skipWs(current, m.end());
+            int end = jsonValueEnd(current, start);
+            if (end < 0) return null;
+            String value = current.substring(start, end).trim();
+            if (value.startsWith("{") || value.startsWith("[")) {
                 // It's an object – continue traversal with this substring
                 current = value;
             } else if (value.startsWith("\"")) {
@@ -811,7 +4431,75 @@ public class Program {
                 return value;
             }
         }
-        return null; // Should not reach here if keys are exhausted
+        return current;
+    }
+
+    /** Raw text of the first object or array stored under key, or null. */
+    private static String jsonBlock(String json, String key) {
+        String v = getNested(json, key);
+        return v != null && (v.startsWith("{") || v.startsWith("[")) ? v : null;
+    }
+
+    private interface EntryVisitor {
+        void visit(String key, String rawValue);
+    }
+
+    /** Calls the visitor with each key and raw value text of a JSON object, in order. */
+    private static void forEachEntry(String objectJson, EntryVisitor visitor) {
+        int i = skipWs(objectJson, objectJson.indexOf('{') + 1);
+        while (i > 0 && i < objectJson.length() && objectJson.charAt(i) == '"') {
+            int keyEnd = jsonValueEnd(objectJson, i);
+            if (keyEnd < 0) return;
+            String key = objectJson.substring(i + 1, keyEnd - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+            int colon = objectJson.indexOf(':', keyEnd);
+            if (colon < 0) return;
+            int start = skipWs(objectJson, colon + 1);
+            int end = jsonValueEnd(objectJson, start);
+            if (end < 0) return;
+            visitor.visit(key, objectJson.substring(start, end));
+            i = skipWs(objectJson, end);
+            if (i < objectJson.length() && objectJson.charAt(i) == ',') i = skipWs(objectJson, i + 1);
+        }
+    }
+
+    private static int skipWs(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    /** End index (exclusive) of the JSON value starting at start, honouring strings and nesting. */
+    private static int jsonValueEnd(String s, int start) {
+        if (start >= s.length()) return -1;
+        char first = s.charAt(start);
+        if (first == '"') {
+            for (int i = start + 1; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '"') return i + 1;
+            }
+            return -1;
+        }
+        if (first == '{' || first == '[') {
+            int depth = 0;
+            boolean inString = false;
+            for (int i = start; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (inString) {
+                    if (c == '\\') i++;
+                    else if (c == '"') inString = false;
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) return i + 1;
+                }
+            }
+            return -1;
+        }
+        int i = start;
+        while (i < s.length() && ",}] \t\r\n".indexOf(s.charAt(i)) < 0) i++;
+        return i;
     }
 
     // For backward compatibility with existing calls
@@ -835,6 +4523,22 @@ public class Program {
         return null;
     }
 
+    /** Major version of the running JVM (8 for 1.8.x). */
+    private static int javaMajor() {
+        int major = majorOf(System.getProperty("java.version"));
+        return major > 0 ? major : 21;
+    }
+
+    /** Major version in a version string ("1.8.0_392" is 8, "17.0.9" is 17), or -1. */
+    private static int majorOf(String version) {
+        String v = version.startsWith("1.") ? version.substring(2) : version;
+        try {
+            return Integer.parseInt(v.split("[^0-9]")[0]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private static String osName() {
         String os = System.getProperty("os.name").toLowerCase();
         if (os.contains("win")) return "windows";
@@ -844,6 +4548,10 @@ public class Program {
 
     // --- LOGGING & UI helpers ---
     private void log(String msg) {
+        if (console == null) {
+            System.out.println("[LOG] " + msg);
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             console.append("[LOG] " + msg + "\n");
             console.setCaretPosition(console.getDocument().getLength());
@@ -851,6 +4559,7 @@ public class Program {
     }
 
     private void status(String msg) {
+        if (statusLabel == null) return;
         SwingUtilities.invokeLater(() -> statusLabel.setText(msg));
     }
 
@@ -859,17 +4568,62 @@ public class Program {
     }
     
     private void toggleButtons(boolean enabled) {
+        if (frame == null) return;
         SwingUtilities.invokeLater(() -> {
             loginBtn.setEnabled(enabled && !isLoggedIn);
             fetchBtn.setEnabled(enabled);
             launchBtn.setEnabled(enabled);
             versionBox.setEnabled(enabled);
+            instanceBox.setEnabled(enabled);
             emailField.setEnabled(enabled && !isLoggedIn);
             passwordField.setEnabled(enabled && !isLoggedIn);
         });
     }
 
+    private static String argValue(List<String> args, String flag) {
+        int at = args.indexOf(flag);
+        return at >= 0 && at + 1 < args.size() ? args.get(at + 1) : null;
+    }
+
     public static void main(String[] args) {
+        List<String> argList = Arrays.asList(args);
+        int verifyAt = Math.max(argList.indexOf("--verify"), argList.indexOf("--repair"));
+        if (verifyAt >= 0) {
+            if (verifyAt + 1 >= args.length) {
+                System.err.println("Usage: --verify <versionId> | --repair <versionId>");
+                System.exit(2);
+            }
+            int bad = new Program(false).verifyVersion(args[verifyAt + 1], "--repair".equals(args[verifyAt]));
+            System.exit(bad == 0 ? 0 : 1);
+        }
+        if (argList.contains("--list-versions")) {
+            Program engine = new Program(false);
+            int code = engine.listVersions(argList.contains("--offline"));
+            engine.shutdown();
+            System.exit(code);
+        }
+        int launchAt = argList.indexOf("--launch");
+        if (launchAt >= 0) {
+            String token = System.getenv("CATCLIENT_ACCESS_TOKEN");
+            String username = argValue(argList, "--username");
+            String uuid = argValue(argList, "--uuid");
+            if (launchAt + 1 >= args.length || token == null || username == null || uuid == null) {
+                System.err.println("Usage: --launch <versionId> [--instance <name>] --username <name> --uuid <uuid>");
+                System.err.println("       (the Minecraft access token is read from CATCLIENT_ACCESS_TOKEN)");
+                System.exit(2);
+            }
+            String instance = argValue(argList, "--instance");
+            if (instance != null && !DEFAULT_INSTANCE.equals(instance) && !validInstanceName(instance)) {
+                System.err.println("Invalid instance name: " + instance);
+                System.err.println("       (use letters, digits, spaces, '.', '_' or '-', at most 40, not starting with '.')");
+                System.exit(2);
+            }
+            Program engine = new Program(false);
+            int code = engine.launchHeadless(args[launchAt + 1], instance == null ? DEFAULT_INSTANCE : instance, username, uuid, token);
+            engine.shutdown();
+            System.exit(code);
+        }
+        cdsTraining = argList.contains("--cds-training");
         SwingUtilities.invokeLater(Program::new);
     }
 }
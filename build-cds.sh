@@ -0,0 +1,16 @@
+#!/bin/sh
+# Builds an AppCDS archive for the launcher (CTACHOLDINGLAUNCHERV0) so Swing,
+# java.net.http and regex classes are mapped from a shared archive at startup.
+# Needs JDK 13+ and a display (the training run opens the window briefly).
+set -e
+cd "$(dirname "$0")"
+
+mkdir -p build/src build/classes
+cp CTACHOLDINGLAUNCHERV0.java build/src/Program.java
+javac -encoding UTF-8 -d build/classes build/src/Program.java
+
+# Training run: opens the window, runs the startup tasks once, then exits
+java -XX:ArchiveClassesAtExit=build/launcher.jsa -cp build/classes Program --cds-training
+
+echo "Archive written to build/launcher.jsa. Start the launcher with:"
+echo "  java -XX:SharedArchiveFile=build/launcher.jsa -cp build/classes Program"